@@ -0,0 +1,155 @@
+package com.beder.texture;
+
+import java.awt.image.BufferedImage;
+
+import com.beder.texture.render.FloatRows;
+import com.beder.texture.render.IntRaster;
+
+/**
+ * A single-channel raster of floats, nominally in [0,1], stored row-major.
+ * Grayscale generators write these directly and grayscale consumers read
+ * them, so values are only quantized to 8-bit ARGB for display and export.
+ */
+public final class FloatChannel implements FloatRows {
+	private final int width, height;
+	private final float[] data;
+
+	public FloatChannel(int res) {
+		this(res, res);
+	}
+
+	public FloatChannel(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.data = new float[width * height];
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public void readRows(int y0, int rows, float[] dst) {
+		System.arraycopy(data, y0 * width, dst, 0, Math.min(rows, height - y0) * width);
+	}
+
+	/**
+	 * @return the backing row-major array; index y * getWidth() + x
+	 */
+	public float[] getData() {
+		return data;
+	}
+
+	public float get(int x, int y) {
+		return data[y * width + x];
+	}
+
+	public void set(int x, int y, float v) {
+		data[y * width + x] = v;
+	}
+
+	public FloatChannel copy() {
+		FloatChannel c = new FloatChannel(width, height);
+		System.arraycopy(data, 0, c.data, 0, data.length);
+		return c;
+	}
+
+	/**
+	 * @return a copy shrunk by an integer factor, each value the mean of a
+	 *         factor x factor block; edge rows and columns that do not fill
+	 *         a block are dropped
+	 */
+	public FloatChannel downsample(int factor) {
+		int w = width / factor, h = height / factor;
+		FloatChannel c = new FloatChannel(w, h);
+		float inv = 1f / (factor * factor);
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				float sum = 0;
+				for (int dy = 0; dy < factor; dy++) {
+					int o = (y * factor + dy) * width + x * factor;
+					for (int dx = 0; dx < factor; dx++) {
+						sum += data[o + dx];
+					}
+				}
+				c.data[y * w + x] = sum * inv;
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * Decodes an image to its mean RGB intensity, (r + g + b) / 3 / 255.
+	 */
+	public static FloatChannel fromImage(BufferedImage img) {
+		IntRaster src = IntRaster.read(img);
+		int w = src.getWidth(), h = src.getHeight();
+		FloatChannel c = new FloatChannel(w, h);
+		int[] pixels = src.getData();
+		for (int y = 0; y < h; y++) {
+			int in = src.rowOffset(y);
+			int o = y * w;
+			for (int x = 0; x < w; x++) {
+				c.data[o + x] = intensity(pixels[in + x]);
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * @return the mean RGB intensity of an ARGB pixel, as fromImage() decodes it
+	 */
+	public static float intensity(int rgb) {
+		int sum = ((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF);
+		return (float) ((sum / 3.0) / 255.0);
+	}
+
+	/**
+	 * Quantizes to an opaque gray ARGB image, clamping to [0,1].
+	 */
+	public BufferedImage toImage() {
+		IntRaster dst = IntRaster.create(width, height);
+		int[] pixels = dst.getData();
+		for (int y = 0; y < height; y++) {
+			int out = dst.rowOffset(y);
+			int o = y * width;
+			for (int x = 0; x < width; x++) {
+				int gray = toByte(data[o + x]);
+				pixels[out + x] = 0xFF000000 | (gray << 16) | (gray << 8) | gray;
+			}
+		}
+		return dst.getImage();
+	}
+
+	/**
+	 * @return the values as unsigned 16-bit samples (0..65535), clamping to [0,1]
+	 */
+	public short[] toUInt16() {
+		short[] out = new short[data.length];
+		for (int i = 0; i < data.length; i++) {
+			out[i] = (short) toUInt16(data[i]);
+		}
+		return out;
+	}
+
+	/**
+	 * @return v as an unsigned 16-bit sample, 0..65535, clamping to [0,1]
+	 */
+	public static int toUInt16(float v) {
+		return Math.round(Math.min(1f, Math.max(0f, v)) * 65535f);
+	}
+
+	/**
+	 * @return v scaled to 0..255 the way the generators always have: truncated, then clamped
+	 */
+	public static int toByte(float v) {
+		int b = (int) (v * 255.0);
+		return b < 0 ? 0 : (b > 255 ? 255 : b);
+	}
+}
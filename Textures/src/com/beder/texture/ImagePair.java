@@ -1,44 +1,611 @@
 package com.beder.texture;
 
-import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.beder.texture.cache.ContentHash;
+import com.beder.texture.profile.ImageCopyEvent;
+import com.beder.texture.render.IntRaster;
+import com.beder.texture.render.TiledChannel;
+import com.beder.texture.render.TiledImage;
+
+/**
+ * The left and right images that flow through the layer stack. Each side is
+ * an ARGB image or a grayscale FloatChannel, converted lazily when read the
+ * other way.
+ * <p>
+ * Images are copy-on-write: copy() and the with*() methods share the
+ * underlying buffers and only bump a reference count. A real copy is made
+ * when getWritableLeft()/getWritableRight() is asked for a buffer that
+ * another pair still refers to. Pairs that are dropped should be release()d
+ * so their buffers can be written in place again; a pair that is never
+ * released only costs an extra copy on the next write.
+ */
 public class ImagePair {
-	public BufferedImage left, right;
-	
-	private ImagePair() {
-		
-	} 
+	private SharedImage left, right;
+
+	/**
+	 * A reference-counted buffer shared between pairs. It holds an ARGB image,
+	 * a FloatChannel, or both; the missing one is converted on first use.
+	 * Only the exclusive owner may ask for a writable view, which drops the
+	 * other representation since it would go stale.
+	 * <p>
+	 * A buffer can also be compacted to a PackedRaster of whichever
+	 * representation it was created as, and is unpacked again on first read.
+	 * The packed copy is kept until the next write, so compacting an
+	 * unchanged buffer a second time is free.
+	 * <p>
+	 * A buffer created from a TiledImage, or a TiledChannel, keeps its pixels
+	 * off the heap. The image or channel views of it are only built, in full,
+	 * if asked for; previews and downsampled copies are read from the tiles
+	 * instead. A TiledChannel is quantized to ARGB tiles the first time tiles
+	 * are asked for.
+	 */
+	private static class SharedImage {
+		private BufferedImage image;
+		private FloatChannel channel;
+		private PackedRaster packed;
+		private TiledImage tiled;
+		private TiledChannel tiledChannel;
+		private BufferedImage preview;
+		private boolean gray;
+		private Long hash;
+		final AtomicInteger refs;
+
+		SharedImage(BufferedImage image) {
+			this.image = image;
+			this.refs = new AtomicInteger(1);
+		}
+
+		SharedImage(FloatChannel channel) {
+			this.channel = channel;
+			this.gray = true;
+			this.refs = new AtomicInteger(1);
+		}
+
+		SharedImage(TiledImage tiled) {
+			this.tiled = tiled;
+			this.refs = new AtomicInteger(1);
+		}
+
+		SharedImage(TiledChannel tiledChannel) {
+			this.tiledChannel = tiledChannel;
+			this.gray = true;
+			this.refs = new AtomicInteger(1);
+		}
+
+		SharedImage(PackedRaster packed) {
+			this.packed = packed;
+			this.gray = packed.isGray();
+			this.refs = new AtomicInteger(1);
+		}
+
+		synchronized BufferedImage image() {
+			if (image == null) {
+				unpack();
+				if (image == null) {
+					image = tiled != null ? tiled.toImage() : (tiledChannel != null ? channel() : channel).toImage();
+				}
+			}
+			return image;
+		}
+
+		synchronized FloatChannel channel() {
+			if (channel == null) {
+				unpack();
+				if (channel == null) {
+					channel = tiledChannel != null ? tiledChannel.toChannel() : FloatChannel.fromImage(image());
+				}
+			}
+			return channel;
+		}
+
+		/**
+		 * @return the tiled pixels, or null if this buffer is held on the heap
+		 */
+		synchronized TiledImage tiled() {
+			if (tiled == null && tiledChannel != null) {
+				tiled = tiledChannel.toTiledImage();
+			}
+			return tiled;
+		}
+
+		/**
+		 * @return the tiled values, or null unless this buffer was created from them
+		 */
+		synchronized TiledChannel tiledChannel() {
+			return tiledChannel;
+		}
+
+		/**
+		 * @return the image, or for tiles a copy shrunk to about size pixels
+		 *         across, made once
+		 */
+		synchronized BufferedImage preview(int size) {
+			if (tiledChannel != null) {
+				if (preview == null) {
+					preview = tiledChannel.downsample(Math.max(1, tiledChannel.getWidth() / size)).toImage();
+				}
+				return preview;
+			}
+			if (tiled == null) {
+				return image();
+			}
+			if (preview == null) {
+				preview = tiled.downsample(Math.max(1, tiled.getWidth() / size));
+			}
+			return preview;
+		}
+
+		synchronized BufferedImage writableImage() {
+			image();
+			channel = null;
+			packed = null;
+			tiled = null;
+			tiledChannel = null;
+			preview = null;
+			gray = false;
+			hash = null;
+			return image;
+		}
+
+		synchronized FloatChannel writableChannel() {
+			channel();
+			image = null;
+			packed = null;
+			tiled = null;
+			tiledChannel = null;
+			preview = null;
+			gray = true;
+			hash = null;
+			return channel;
+		}
+
+		/**
+		 * Replaces the pixels with a compressed copy. Readers that already
+		 * hold the image or channel keep a valid, if no longer shared, copy.
+		 */
+		synchronized void compact() {
+			if (tiled != null || tiledChannel != null) {
+				image = null;
+				channel = null;
+				return;
+			}
+			if (packed == null) {
+				if (image == null && channel == null) {
+					return;
+				}
+				packed = gray ? PackedRaster.pack(channel) : PackedRaster.pack(image);
+			}
+			image = null;
+			channel = null;
+		}
+
+		/**
+		 * @return the compressed copy, made now if there is none, leaving
+		 *         the uncompressed pixels in place
+		 */
+		synchronized PackedRaster pack() {
+			if (packed == null) {
+				packed = gray ? PackedRaster.pack(channel()) : PackedRaster.pack(image());
+			}
+			return packed;
+		}
+
+		private void unpack() {
+			if (image == null && channel == null && packed != null) {
+				if (packed.isGray()) {
+					channel = packed.unpackChannel();
+				} else {
+					image = packed.unpackImage();
+				}
+			}
+		}
+
+		/**
+		 * Hashes whichever representation the buffer was created as, so a
+		 * channel is hashed at full precision rather than as 8-bit pixels.
+		 * The hash is kept until the buffer is handed out for writing, so
+		 * writes through a writable view must finish before the next call.
+		 */
+		synchronized long contentHash() {
+			if (hash == null) {
+				if (tiledChannel != null) {
+					hash = tiledChannel.contentHash();
+				} else if (tiled != null) {
+					hash = tiled.contentHash();
+				} else if (gray) {
+					FloatChannel c = channel();
+					hash = ContentHash.ofFloats(c.getData(), c.getWidth(), c.getHeight());
+				} else {
+					IntRaster r = IntRaster.read(image());
+					hash = ContentHash.ofArgb(r.getData(), r.rowOffset(0), r.getStride(), r.getWidth(), r.getHeight());
+				}
+			}
+			return hash;
+		}
+
+		/**
+		 * @return a new buffer shrunk by an integer factor, in the same representation
+		 */
+		synchronized SharedImage downsample(int factor) {
+			if (tiledChannel != null) {
+				return new SharedImage(tiledChannel.downsample(factor));
+			}
+			if (tiled != null) {
+				return new SharedImage(tiled.downsample(factor));
+			}
+			return gray ? new SharedImage(channel().downsample(factor))
+					: new SharedImage(ImagePair.downsample(image(), factor));
+		}
+
+		SharedImage retain() {
+			refs.incrementAndGet();
+			return this;
+		}
+
+		void release() {
+			refs.decrementAndGet();
+		}
+
+		boolean isShared() {
+			return refs.get() > 1;
+		}
+	}
+
+	private ImagePair(SharedImage left, SharedImage right) {
+		this.left = left;
+		this.right = right;
+	}
 
+	/**
+	 * A black pair. Sizes that TiledImage.shouldTile() are kept off the heap.
+	 */
 	public ImagePair(int res) {
-	    left = new BufferedImage(res, res, BufferedImage.TYPE_INT_ARGB);
-	    right = new BufferedImage(res, res, BufferedImage.TYPE_INT_ARGB);
-	    Graphics2D g = left.createGraphics();
-	    g.setColor(Color.BLACK);
-	    g.fillRect(0, 0, left.getWidth(), left.getHeight());
-	    g.dispose();
-	    g = right.createGraphics();
-	    g.setColor(Color.BLACK);
-	    g.fillRect(0, 0, right.getWidth(), right.getHeight());
-	    g.dispose();
-	}
-	
+	    left = blackBuffer(res);
+	    right = blackBuffer(res);
+	}
+
+	/**
+	 * Wraps existing images without copying them. The pair takes ownership,
+	 * so the caller must not write to them afterwards.
+	 */
+	public ImagePair(BufferedImage left, BufferedImage right) {
+		this.left = new SharedImage(left);
+		this.right = new SharedImage(right);
+	}
+
 	public ImagePair(ImagePair old) {
-		left = copyImage(old.left);
-		right = copyImage(old.right);
+		left = old.left.retain();
+		right = old.right.retain();
 	}
-	
+
+	/**
+	 * @return a pair sharing both buffers with this one
+	 */
 	public ImagePair copy() {
-		ImagePair pair = new ImagePair();
-		pair.left = copyImage(left);
-		pair.right = copyImage(right);
-		return pair;
+		return new ImagePair(this);
+	}
+
+	/**
+	 * @return a pair with the given new left image, sharing this pair's right buffer
+	 */
+	public ImagePair withLeft(BufferedImage img) {
+		return new ImagePair(new SharedImage(img), right.retain());
+	}
+
+	/**
+	 * @return a pair with the given new right image, sharing this pair's left buffer
+	 */
+	public ImagePair withRight(BufferedImage img) {
+		return new ImagePair(left.retain(), new SharedImage(img));
+	}
+
+	/**
+	 * @return a pair with the given new tiled left image, sharing this pair's right buffer
+	 */
+	public ImagePair withLeft(TiledImage img) {
+		return new ImagePair(new SharedImage(img), right.retain());
+	}
+
+	/**
+	 * @return a pair with the given new tiled right image, sharing this pair's left buffer
+	 */
+	public ImagePair withRight(TiledImage img) {
+		return new ImagePair(left.retain(), new SharedImage(img));
+	}
+
+	/**
+	 * @return a pair with the given new tiled left channel, sharing this pair's right buffer
+	 */
+	public ImagePair withLeft(TiledChannel channel) {
+		return new ImagePair(new SharedImage(channel), right.retain());
+	}
+
+	/**
+	 * @return a pair with the given new left channel, sharing this pair's right buffer
+	 */
+	public ImagePair withLeft(FloatChannel channel) {
+		return new ImagePair(new SharedImage(channel), right.retain());
+	}
+
+	/**
+	 * @return a pair with the given new right channel, sharing this pair's left buffer
+	 */
+	public ImagePair withRight(FloatChannel channel) {
+		return new ImagePair(left.retain(), new SharedImage(channel));
+	}
+
+	/**
+	 * @return a pair whose right side shares this pair's left buffer
+	 */
+	public ImagePair withLeftAsRight() {
+		return new ImagePair(left.retain(), left.retain());
 	}
-	
+
+	/**
+	 * @return a new pair shrunk by an integer factor with a box filter, for
+	 *         cheap previews; sides that share a buffer still share one
+	 */
+	public ImagePair downsample(int factor) {
+		SharedImage l = left.downsample(factor);
+		SharedImage r = right == left ? l.retain() : right.downsample(factor);
+		return new ImagePair(l, r);
+	}
+
+	/**
+	 * @return the left image as ARGB, which must be treated as read-only
+	 */
+	public BufferedImage getLeft() {
+		return left.image();
+	}
+
+	/**
+	 * @return the right image as ARGB, which must be treated as read-only
+	 */
+	public BufferedImage getRight() {
+		return right.image();
+	}
+
+	/**
+	 * @return the left image for display: the image itself, or if it is held
+	 *         off the heap a copy shrunk by an integer factor to about size
+	 *         pixels across, so showing it never loads the whole image
+	 */
+	public BufferedImage getLeftPreview(int size) {
+		return left.preview(size);
+	}
+
+	/**
+	 * @return the right image for display; see getLeftPreview()
+	 */
+	public BufferedImage getRightPreview(int size) {
+		return right.preview(size);
+	}
+
+	/**
+	 * @return the left side as a grayscale channel, which must be treated as read-only
+	 */
+	public FloatChannel getLeftChannel() {
+		return left.channel();
+	}
+
+	/**
+	 * @return the right side as a grayscale channel, which must be treated as read-only
+	 */
+	public FloatChannel getRightChannel() {
+		return right.channel();
+	}
+
+	/**
+	 * @return the left side's tiles if it is held off the heap, or null
+	 */
+	public TiledImage getLeftTiled() {
+		return left.tiled();
+	}
+
+	/**
+	 * @return the right side's tiles if it is held off the heap, or null
+	 */
+	public TiledImage getRightTiled() {
+		return right.tiled();
+	}
+
+	/**
+	 * @return the left side's tiled values if it was rendered to them, or
+	 *         null; unlike getLeftTiled() these are not quantized to 8 bits
+	 */
+	public TiledChannel getLeftTiledChannel() {
+		return left.tiledChannel();
+	}
+
+	/**
+	 * @return the right side's tiled values; see getLeftTiledChannel()
+	 */
+	public TiledChannel getRightTiledChannel() {
+		return right.tiledChannel();
+	}
+
+	/**
+	 * @return a hash of the left side's contents, computed once per buffer
+	 */
+	public long getLeftHash() {
+		return left.contentHash();
+	}
+
+	/**
+	 * @return a hash of the right side's contents, computed once per buffer
+	 */
+	public long getRightHash() {
+		return right.contentHash();
+	}
+
+	/**
+	 * @return the left image, first copied if another pair shares it
+	 */
+	public BufferedImage getWritableLeft() {
+		if (left.isShared()) {
+			left = detach(left, false, "left");
+		}
+		return left.writableImage();
+	}
+
+	/**
+	 * @return the right image, first copied if another pair shares it
+	 */
+	public BufferedImage getWritableRight() {
+		if (right.isShared()) {
+			right = detach(right, false, "right");
+		}
+		return right.writableImage();
+	}
+
+	/**
+	 * @return the left channel, first copied if another pair shares it
+	 */
+	public FloatChannel getWritableLeftChannel() {
+		if (left.isShared()) {
+			left = detach(left, true, "left");
+		}
+		return left.writableChannel();
+	}
+
+	/**
+	 * @return the right channel, first copied if another pair shares it
+	 */
+	public FloatChannel getWritableRightChannel() {
+		if (right.isShared()) {
+			right = detach(right, true, "right");
+		}
+		return right.writableChannel();
+	}
+
+	/**
+	 * Gives up a claim on a shared buffer in exchange for a private copy of
+	 * it, as an image or a channel. This is where copy-on-write pays for the
+	 * copy, so it is what ImageCopyEvent times.
+	 */
+	private static SharedImage detach(SharedImage old, boolean gray, String side) {
+		ImageCopyEvent event = new ImageCopyEvent();
+		event.start(side, 0);
+		SharedImage copy;
+		if (gray) {
+			FloatChannel channel = old.channel();
+			event.setResolution(channel.getWidth());
+			copy = new SharedImage(channel.copy());
+		} else {
+			BufferedImage image = old.image();
+			event.setResolution(image.getWidth());
+			copy = new SharedImage(copyImage(image));
+		}
+		old.release();
+		event.finish();
+		return copy;
+	}
+
+	/**
+	 * Compresses the buffers of the idle pairs in memory, except any buffer
+	 * that one of the active pairs shares. Compacted buffers are unpacked
+	 * again the next time they are read through any pair.
+	 */
+	public static void compact(Collection<ImagePair> idle, Collection<ImagePair> active) {
+		Set<SharedImage> keep = Collections.newSetFromMap(new IdentityHashMap<SharedImage, Boolean>());
+		for (ImagePair p : active) {
+			keep.add(p.left);
+			keep.add(p.right);
+		}
+		for (ImagePair p : idle) {
+			if (!keep.contains(p.left)) {
+				p.left.compact();
+			}
+			if (!keep.contains(p.right)) {
+				p.right.compact();
+			}
+		}
+	}
+
+	/**
+	 * Writes both sides in their compressed form, compressing them first if
+	 * need be.
+	 */
+	void writePacked(DataOutput out) throws IOException {
+		left.pack().write(out);
+		right.pack().write(out);
+	}
+
+	/**
+	 * Reads a pair written by writePacked(). The sides stay compressed until
+	 * first read.
+	 */
+	static ImagePair readPacked(DataInput in) throws IOException {
+		SharedImage left = new SharedImage(PackedRaster.read(in));
+		return new ImagePair(left, new SharedImage(PackedRaster.read(in)));
+	}
+
+	/**
+	 * Drops this pair's claim on its buffers. The pair must not be used afterwards.
+	 */
+	public void release() {
+		left.release();
+		right.release();
+	}
+
+	private static SharedImage blackBuffer(int res) {
+		if (TiledImage.shouldTile(res)) {
+			TiledImage tiled = new TiledImage(res, res);
+			tiled.fill(0xFF000000);
+			return new SharedImage(tiled);
+		}
+		return new SharedImage(blackImage(res));
+	}
+
+	private static BufferedImage blackImage(int res) {
+		IntRaster raster = IntRaster.create(res, res);
+		Arrays.fill(raster.getData(), 0xFF000000);
+		return raster.getImage();
+	}
+
+	/**
+	 * Shrinks an image by averaging each factor x factor block, channel by channel.
+	 */
+	private static BufferedImage downsample(BufferedImage img, int factor) {
+		IntRaster src = IntRaster.read(img);
+		int w = src.getWidth() / factor, h = src.getHeight() / factor;
+		IntRaster dst = IntRaster.create(w, h);
+		for (int y = 0; y < h; y++) {
+			IntRaster.boxRow(src.getData(), src.rowOffset(y * factor), src.getStride(), factor, dst.getData(), dst.rowOffset(y), w);
+		}
+		return dst.getImage();
+	}
+
+	/**
+	 * Copies an image. ARGB images are copied as raw int rows; anything else
+	 * falls back to a Java2D draw.
+	 */
     public static BufferedImage copyImage(BufferedImage source) {
-        BufferedImage copy = new BufferedImage(source.getWidth(), source.getHeight(), source.getType());
+        if (source.getType() == BufferedImage.TYPE_INT_ARGB) {
+            IntRaster src = IntRaster.of(source);
+            IntRaster dst = IntRaster.create(src.getWidth(), src.getHeight());
+            if (src.isContiguous()) {
+                System.arraycopy(src.getData(), 0, dst.getData(), 0, dst.getData().length);
+            } else {
+                for (int y = 0; y < src.getHeight(); y++) {
+                    System.arraycopy(src.getData(), src.rowOffset(y), dst.getData(), dst.rowOffset(y), src.getWidth());
+                }
+            }
+            return dst.getImage();
+        }
+        int type = source.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_ARGB : source.getType();
+        BufferedImage copy = new BufferedImage(source.getWidth(), source.getHeight(), type);
         Graphics g = copy.getGraphics();
         g.drawImage(source, 0, 0, null);
         g.dispose();
@@ -1,57 +1,190 @@
 package com.beder.texture;
 
 import java.awt.FlowLayout;
-import java.awt.event.MouseListener;
 
-import javax.security.auth.Refreshable;
 import javax.swing.BorderFactory;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
+import com.beder.texture.profile.LayerApplyEvent;
+
 public class Layer {
 	private ImagePair input;
 	private ImagePair output;
 	private Operation op;
 	private Parameters param;
-	private JPanel tilePanel;
+	private boolean dirty;
+	private boolean restored;
+	private long version;
+	private long renderNanos;
+	private OperationControls controls;
 	
 	public Layer(Operation op) {
 		this.op = op;
-		
-		tilePanel = new JPanel(new FlowLayout());
-		param = new Parameters();
-		tilePanel.setBorder(BorderFactory.createTitledBorder(op.getTitle()));
+		param = op.getDefaultParameters();
+		dirty = true;
 	}
 
-	public Layer(Operation op, ImagePair input) {
-		this(op);
-		this.input = input;
+	/**
+	 * Runs the operation on the given input and caches the result as this
+	 * layer's output, which clears the dirty flag. The input and output are
+	 * held as copy-on-write shares, so no pixels are copied here. The
+	 * operation gets a share of its own, so one that writes to the pair it is
+	 * given copies the buffers first and the held input stays as it was.
+	 * <p>
+	 * This may run on a render thread while the EDT edits the parameters. If
+	 * the layer is invalidated during the run, or the input is no longer the
+	 * clean output of upstream by the time it finishes, the result is still
+	 * kept but the layer stays dirty. If the operation throws, nothing is
+	 * changed. Read the result with getOutput(), which takes no share of it.
+	 * @param upstream the layer input came from, or null for the base image
+	 */
+	public void apply(RenderContext ctx, ImagePair input, Layer upstream) {
+		Parameters par;
+		long started;
+		synchronized (this) {
+			par = param;
+			started = version;
+		}
+		ImagePair in = input.copy();
+		ImagePair arg = in.copy();
+		ImagePair out;
+		LayerApplyEvent event = new LayerApplyEvent();
+		event.start(op.getTitle(), ctx.getRes());
+		long start = System.nanoTime();
+		try {
+			out = op.executeOperation(ctx, arg, par);
+		} catch (RuntimeException e) {
+			arg.release();
+			in.release();
+			throw e;
+		} finally {
+			event.finish();
+		}
+		if (out != arg) {
+			arg.release();
+		}
+		long took = System.nanoTime() - start;
+		synchronized (this) {
+			renderNanos = took;
+			if (this.input != null) {
+				this.input.release();
+			}
+			if (output != null) {
+				output.release();
+			}
+			this.input = in;
+			output = out;
+			restored = false;
+			if (started == version && (upstream == null || upstream.isCurrent(input))) {
+				dirty = false;
+			}
+		}
+	}
+
+	/**
+	 * Installs an output saved earlier, as if the layer had just rendered it
+	 * with its current parameters. Used when opening a project, before the
+	 * layer is added to a stack.
+	 * @param renderNanos how long the saved output originally took to render
+	 */
+	synchronized void restore(ImagePair output, long renderNanos) {
+		if (input != null) {
+			input.release();
+			input = null;
+		}
+		if (this.output != null) {
+			this.output.release();
+		}
+		this.output = output;
+		this.renderNanos = renderNanos;
+		dirty = false;
+		restored = true;
+	}
+
+	/**
+	 * @return how long the last completed render of this layer took, or 0 if it has none
+	 */
+	public synchronized long getRenderNanos() {
+		return renderNanos;
+	}
+
+	/**
+	 * @return true if the cached output is missing or out of date
+	 */
+	public synchronized boolean isDirty() {
+		return dirty || output == null;
+	}
+
+	/**
+	 * @return whether the output was installed by restore() and has not been
+	 * invalidated since, so it stands even if the layers below are dirty
+	 */
+	public synchronized boolean isRestored() {
+		return restored && !isDirty();
+	}
+
+	/**
+	 * @return whether pair is this layer's output and that output is clean
+	 */
+	synchronized boolean isCurrent(ImagePair pair) {
+		return output == pair && !isDirty();
+	}
+
+	/**
+	 * Marks the cached output as out of date. Called by LayerStack, which
+	 * also invalidates every layer that depends on this one.
+	 */
+	public synchronized void invalidate() {
+		dirty = true;
+		restored = false;
+		version++;
+	}
+
+	/**
+	 * @return the Swing controls for this layer's parameters, built on first use
+	 */
+	public JPanel getConfig() {
+		if (controls == null) {
+			controls = new OperationControls(op, getParam());
+		}
+		return controls.getPanel();
+	}
+
+	/****
+	 * @return the values currently chosen in this layer's controls, or its
+	 *         current parameters if the controls have not been built yet
+	 */
+	public Parameters getUIParameters() {
+		if (controls == null) {
+			return getParam();
+		}
+		return controls.getParameters();
 	}
-	
-	public ImagePair apply(ImagePair input) {
-	    this.input = input.copy();
-	    ImagePair out = op.executeOperation(this.input, param);
-	    output = out.copy();
-	    return out;
-	}	
 	
 	public JPanel getTilePanel() {
 	    JPanel rebuiltPanel = new JPanel(new FlowLayout());
-	    rebuiltPanel.setBorder(BorderFactory.createTitledBorder(op.getTitle()));
-	    for (String key : param.keySet()) {
-	        if (!key.equals("Seed")) {
-	            rebuiltPanel.add(new JLabel(key));
-	            rebuiltPanel.add(new JLabel(Double.toString(param.get(key, 0))));
+	    rebuiltPanel.setBorder(BorderFactory.createTitledBorder(op.getTitle() + (isDirty() ? " *" : "")));
+	    long nanos = getRenderNanos();
+	    if (nanos > 0) {
+	        rebuiltPanel.add(new JLabel(String.format("%d ms", nanos / 1_000_000)));
+	    }
+	    Parameters par = getParam();
+	    ParameterSchema schema = par.getSchema();
+	    for (int slot = 0; slot < schema.size(); slot++) {
+	        if (!schema.isSeed(slot)) {
+	            rebuiltPanel.add(new JLabel(schema.getName(slot)));
+	            rebuiltPanel.add(new JLabel(Double.toString(par.get(slot))));
 	        }
 	    }
 	    return rebuiltPanel;
 	}
 
-	public ImagePair getInput() {
+	public synchronized ImagePair getInput() {
 		return input;
 	}
 
-	public ImagePair getOutput() {
+	public synchronized ImagePair getOutput() {
 		return output;
 	}
 
@@ -59,11 +192,11 @@ public class Layer {
 		return op;
 	}
 
-	public Parameters getParam() {
+	public synchronized Parameters getParam() {
 		return param;
 	}
 
-	public void setParam(Parameters param) {
+	public synchronized void setParam(Parameters param) {
 		this.param = param;
 	}
 	
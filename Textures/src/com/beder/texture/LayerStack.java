@@ -5,32 +5,45 @@ import java.awt.Dimension;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 import javax.swing.BoxLayout;
+import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 
+import com.beder.texture.cache.RenderCache;
+import com.beder.texture.render.ForwardingContext;
+
 import net.miginfocom.swing.MigLayout;
 
 public class LayerStack {
-	private ArrayList<Layer> stack;
-	int curPtr;
+	private final List<Layer> stack;
+	volatile int curPtr;
 	private JPanel stackPanel;
 	private JPanel thisPanel;
 	private TextureGenius genius;
+	private final ImagePair base;
+	private static final int PREVIEW_FACTOR = 8;
 	
 	public LayerStack(TextureGenius genius){
 		this.genius = genius;
-		stack = new ArrayList<Layer>();
+		stack = new CopyOnWriteArrayList<Layer>();
 		curPtr = -1;
+		base = new ImagePair(genius.getRes());
 		
 		thisPanel = new JPanel();
 		thisPanel.setLayout(new BoxLayout(thisPanel, BoxLayout.Y_AXIS));
 		thisPanel.add(new JLabel("Operation Stack"));
+		JButton renderTopButton = new JButton("Render to Top");
+		renderTopButton.addActionListener(e -> genius.renderToTop());
+		thisPanel.add(renderTopButton);
 		stackPanel = new JPanel(new MigLayout("wrap 1, fillx", "[grow]"));
 		thisPanel.add(stackPanel);
 	}
@@ -50,7 +63,7 @@ public class LayerStack {
 			panel.setPreferredSize(new Dimension(200, 50));
 			panel.addMouseListener(new MouseListener() {
 			    @Override public void mouseClicked(MouseEvent e) {
-			    	curPtr = stack.indexOf(clickLayer);
+			    	select(stack.indexOf(clickLayer));
 			    	//JOptionPane.showMessageDialog(panel, "Clicked on index " + curPtr);
 			    	genius.newCurrent();
 			    }
@@ -66,6 +79,7 @@ public class LayerStack {
 
 	/*****
 	 * Adds a new operation AFTER the currentPtr.
+	 *   Marks it and every layer above it dirty
 	 *   Rebuilds the stackPanel
 	 *   DOES NOT "apply"
 	 * @param op
@@ -73,15 +87,241 @@ public class LayerStack {
 
 	public void add(Layer l) {
 	    stack.add(++curPtr, l);
+	    invalidate(l);
 	    buildStackPanel(); // FIX: refresh panel
-	    genius.getGUI().applyImage(l.getInput()); // FIX: show image
+	}
+
+	/****
+	 * Replaces every layer, for instance with those of an opened project,
+	 * and makes the top one current. Nothing is rendered.
+	 */
+	public void replace(List<Layer> layers) {
+		stack.clear();
+		stack.addAll(layers);
+		curPtr = stack.size() - 1;
+		buildStackPanel();
+	}
+
+	/****
+	 * Makes the layer at index the current one. Its snapshots are unpacked
+	 * when it is next rendered; the caller should then compactInactive().
+	 */
+	public void select(int index) {
+		curPtr = index;
+	}
+
+	/****
+	 * Compresses the snapshots of every layer except the current one. The
+	 * current layer's input is the output of the layer below, so that stays
+	 * unpacked too, as does the pair about to be shown. Buffers that are
+	 * already packed and unchanged cost nothing here. Runs on the render
+	 * thread, since packing a large stack takes a while.
+	 * @param shown a pair on screen to keep unpacked as well, or null
+	 */
+	public void compactInactive(ImagePair shown) {
+		List<ImagePair> idle = new ArrayList<ImagePair>();
+		List<ImagePair> active = new ArrayList<ImagePair>();
+		if (shown != null) {
+			active.add(shown);
+		}
+		List<Layer> layers = new ArrayList<Layer>(stack);
+		int current = curPtr;
+		for (int i = 0; i < layers.size(); i++) {
+			Layer l = layers.get(i);
+			List<ImagePair> target = i == current ? active : idle;
+			if (l.getInput() != null) {
+				target.add(l.getInput());
+			}
+			if (l.getOutput() != null) {
+				target.add(l.getOutput());
+			}
+		}
+		ImagePair.compact(idle, active);
+	}
+
+	/****
+	 * Marks the given layer and every layer above it as needing a re-render.
+	 * Layers below it keep their cached outputs.
+	 */
+	public void invalidate(Layer l) {
+		int index = stack.indexOf(l);
+		if (index < 0) {
+			return;
+		}
+		for (int i = index; i < stack.size(); i++) {
+			stack.get(i).invalidate();
+		}
+	}
+
+	/****
+	 * Brings the layers up to and including target up to date, re-running
+	 * the ones above the last clean output and reusing the cached outputs
+	 * below it. Dirty layers below a restored one are skipped, since its
+	 * output no longer depends on them; that happens for layers opened from
+	 * a project, which only renders what is needed.
+	 * Safe to call off the EDT: it works on a snapshot of the stack, and
+	 * progress is reported to ctx as a fraction of all the dirty layers. If a
+	 * layer is invalidated while it runs, the render stops there and returns
+	 * that layer's output, leaving it and the layers above it dirty for the
+	 * render that the invalidation queues.
+	 * @param target the layer to render, or null for the blank base image
+	 * @return the output of that layer
+	 */
+	public ImagePair renderTo(RenderContext ctx, Layer target) {
+		List<Layer> layers = new ArrayList<Layer>(stack);
+		int index = layers.indexOf(target);
+		int clean = lastClean(layers, index);
+		int stages = index - clean;
+		ImagePair pair = clean < 0 ? base : layers.get(clean).getOutput();
+		for (int i = clean + 1; i <= index; i++) {
+			Layer l = layers.get(i);
+			l.apply(new StageContext(ctx, i - clean - 1, stages), pair, i > 0 ? layers.get(i - 1) : null);
+			pair = l.getOutput();
+			if (l.isDirty()) {
+				break;
+			}
+		}
+		compactInactive(pair);
+		return pair;
+	}
+
+	/****
+	 * Finds where renderTo() can start: the highest layer at or below index
+	 * whose output is clean and does not rest on a dirty layer. A dirty layer
+	 * can only be passed over when a restored layer sits above it.
+	 * @return the index of that layer, or -1 to start from the base image
+	 */
+	private static int lastClean(List<Layer> layers, int index) {
+		int clean = -1;
+		boolean intact = true;
+		for (int i = 0; i <= index; i++) {
+			Layer l = layers.get(i);
+			if (l.isDirty()) {
+				intact = false;
+			} else if (intact || l.isRestored()) {
+				clean = i;
+				intact = true;
+			}
+		}
+		return clean;
+	}
+
+	/****
+	 * Like renderTo(), but first shows a rough result. The dirty layers are
+	 * run at 1/8, 1/4 and 1/2 resolution, each pass starting from a box
+	 * downsample of the last clean output, and every pass is handed to
+	 * preview before the full-resolution render. The passes leave no trace
+	 * in the layers, and a cancelled render stops between or inside them.
+	 */
+	public ImagePair renderProgressive(RenderContext ctx, Layer target, Consumer<ImagePair> preview) {
+		List<Layer> layers = new ArrayList<Layer>(stack);
+		int index = layers.indexOf(target);
+		int first = lastClean(layers, index) + 1;
+		if (first <= index) {
+			ImagePair source = first == 0 ? base : layers.get(first - 1).getOutput();
+			for (int factor = PREVIEW_FACTOR; factor > 1; factor /= 2) {
+				int res = ctx.getRes() / factor;
+				if (res < 1) {
+					continue;
+				}
+				RenderContext pc = new PreviewContext(ctx, res);
+				ImagePair pair = source.downsample(factor);
+				for (int i = first; i <= index; i++) {
+					Layer l = layers.get(i);
+					pair = l.getOperation().executeOperation(pc, pair, l.getParam());
+				}
+				ctx.checkCancelled();
+				preview.accept(pair);
+			}
+		}
+		return renderTo(ctx, target);
+	}
+
+	/****
+	 * Renders the layers up to and including target from scratch at the
+	 * context's resolution, leaving the layers' cached outputs alone. Used
+	 * to export at a resolution other than the one being edited.
+	 */
+	public ImagePair renderDetached(RenderContext ctx, Layer target) {
+		List<Layer> layers = new ArrayList<Layer>(stack);
+		int index = layers.indexOf(target);
+		ImagePair pair = new ImagePair(ctx.getRes());
+		for (int i = 0; i <= index; i++) {
+			Layer l = layers.get(i);
+			pair = l.getOperation().executeOperation(new StageContext(ctx, i, index + 1), pair, l.getParam());
+		}
+		return pair;
+	}
+
+	/****
+	 * @return the layer at index, or null for -1 and the blank base image
+	 */
+	public Layer getLayer(int index) {
+		return index < 0 ? null : stack.get(index);
+	}
+
+	/****
+	 * @return the top layer, or null if the stack is empty
+	 */
+	public Layer getTop() {
+		return getLayer(stack.size() - 1);
+	}
+
+	/****
+	 * @return a snapshot of the layers, bottom first
+	 */
+	public List<Layer> getLayers() {
+		return new ArrayList<Layer>(stack);
 	}
 
 	public Layer getCurrent() {
-		if (curPtr < 0) {
+		return getLayer(curPtr);
+	}
+
+	/****
+	 * A view of the render context for one of several layers rendered in a
+	 * row, which scales each layer's progress into its share of the whole.
+	 */
+	private static class StageContext extends ForwardingContext {
+		private final int stage, stages;
+
+		StageContext(RenderContext ctx, int stage, int stages) {
+			super(ctx);
+			this.stage = stage;
+			this.stages = stages;
+		}
+
+		@Override
+		public void reportProgress(double fraction) {
+			super.reportProgress((stage + fraction) / stages);
+		}
+	}
+
+	/****
+	 * A view of the render context for a throwaway low-resolution pass. It
+	 * neither reads nor fills the disk cache and reports no progress, which
+	 * is left to the full-resolution pass.
+	 */
+	private static class PreviewContext extends ForwardingContext {
+		private final int res;
+
+		PreviewContext(RenderContext ctx, int res) {
+			super(ctx);
+			this.res = res;
+		}
+
+		@Override
+		public int getRes() {
+			return res;
+		}
+
+		@Override
+		public RenderCache getCache() {
 			return null;
-		} else {
-			return stack.get(curPtr);
+		}
+
+		@Override
+		public void reportProgress(double fraction) {
 		}
 	}
 }
@@ -1,129 +1,94 @@
 package com.beder.texture;
 
-import java.awt.BorderLayout;
-import java.awt.Component;
-import java.awt.FlowLayout;
 import java.awt.image.BufferedImage;
-import java.util.Map;
-import java.util.Random;
-import java.util.Map.Entry;
-import java.util.TreeMap;
-
-import javax.swing.BorderFactory;
-import javax.swing.JButton;
-import javax.swing.JLabel;
-import javax.swing.JPanel;
-import javax.swing.JSlider;
-import javax.swing.JTextField;
-
-public abstract class Operation implements Comparable<Operation> {
-	private Parameters param;
-	private Redrawable redraw;
-	private JPanel controlPanel;
-	private Map<String, Component> controls;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class of every layer operation. An operation only declares its
+ * parameters and computes; the Swing controls for those parameters are built
+ * by OperationControls on behalf of the Layer that uses the operation.
+ */
+public abstract class Operation implements RenderFunction, Comparable<Operation> {
+	private final List<ParameterSpec> specs;
+	private ParameterSchema schema;
 	protected enum CONTROL_TYPE {INT, DOUBLE, SLIDER, SEED};
-	
-	public Operation(Redrawable redraw){
-		this.redraw = redraw;
-		controlPanel = new JPanel();
-		controls = new TreeMap<String, Component>();
+
+	/**
+	 * Operations sample the texture as the unit square, so a render looks
+	 * the same at any resolution. Parameters given in pixels, such as a
+	 * scale or a sprite size, are pixels at this resolution.
+	 */
+	public static final int REFERENCE_RES = 1024;
+
+	/**
+	 * Parameter declaration recorded by addParameter().
+	 */
+	static class ParameterSpec {
+		final String name;
+		final CONTROL_TYPE type;
+		final double def;
+
+		ParameterSpec(String name, CONTROL_TYPE type, double def) {
+			this.name = name;
+			this.type = type;
+			this.def = def;
+		}
+	}
+
+	public Operation(){
+		specs = new ArrayList<ParameterSpec>();
+	}
+
+	/**
+	 * Declares a parameter. Only called from subclass constructors, so the
+	 * declarations never change once the operation is shared.
+	 * @return the parameter's slot, for reading it from a Parameters block
+	 */
+	protected int addParameter(String name, CONTROL_TYPE type, double def) {
+		if (schema != null) {
+			throw new IllegalStateException("Parameters of " + getClass().getSimpleName() + " are already fixed");
+		}
+		specs.add(new ParameterSpec(name, type, def));
+		return specs.size() - 1;
 	}
-	
-	public void addParameter(String name, CONTROL_TYPE type, double def) {
-		controlPanel.add(new JLabel(name));
-		switch (type) {
-		case INT:
-			JTextField intField = new JTextField(String.format("%d",(int)def), 4);
-			controls.put(name, intField);
-			controlPanel.add(intField);
-			break;
-		case DOUBLE:
-			JTextField doubleField = new JTextField(String.format("%.2f", def), 5);
-			controls.put(name, doubleField);
-			controlPanel.add(doubleField);
-			break;
-	    case SLIDER:
-	        JSlider slider = new JSlider(0, 100, (int) def);
-	        slider.setMajorTickSpacing(20);
-	        slider.setMinorTickSpacing(5);
-	        slider.setPaintTicks(true);
-	        slider.setPaintLabels(true);
-	        controls.put(name, slider);
-	        controlPanel.add(slider);
-	        break;
-		case SEED:
-			JTextField seedField = new JTextField(String.format("%d", (long)def), 8); // FIX: store to seedField
-		    controls.put(name, seedField);
-		    controlPanel.add(seedField);
-		    JButton randomSeedButton = new JButton("Random");
-		    randomSeedButton.addActionListener(e -> {
-		        String newSeed = String.valueOf(new Random().nextInt(Integer.MAX_VALUE));
-		        seedField.setText(newSeed);
-		    });
-		    controlPanel.add(randomSeedButton);
-		    break;
-		default:
-			break;
+
+	/**
+	 * @return the declared parameters, fixed on first use
+	 */
+	public final synchronized ParameterSchema getSchema() {
+		if (schema == null) {
+			schema = new ParameterSchema(specs);
 		}
+		return schema;
 	}
 
 	/****
-	 * @return the current set of values chosen as parameters for this operation
+	 * @return the declared default value of every parameter, without touching any Swing controls
 	 */
-	public final Parameters getUIParameters() {
-	    Parameters param = new Parameters();
-	    for (Map.Entry<String,Component> entry : controls.entrySet()) {
-	        String name = entry.getKey();
-	        Component c = entry.getValue();
-	        try {
-	            if (c instanceof JTextField) {
-	                JTextField tf = (JTextField)c;
-	                param.put(name, Double.parseDouble(tf.getText()));
-	            } else if (c instanceof JSlider) {
-	                JSlider s = (JSlider)c;
-	                param.put(name, (double)s.getValue());
-	            }
-	        } catch (NumberFormatException e) {
-	            System.err.println("Invalid input for parameter: " + name);
-	        }
-	    }
-	    return param;
+	public final Parameters getDefaultParameters() {
+		return getSchema().newParameters();
 	}
-	
+
 	/**
-     * Applies this operation to the given input image pair and returns same pair for further operations to be applied to it.
+     * Applies this operation to the given input image pair and returns a new pair for further operations to be applied to it.
      */
-	public abstract ImagePair executeOperation(ImagePair input, Parameters par);
+	@Override
+	public abstract ImagePair executeOperation(RenderContext ctx, ImagePair input, Parameters par);
 
 
 	/**
      * Returns a textual description of the operation and its parameters.
      */
 	public abstract String getDescription();
-    
-    /**
-     * Applies this operation to the given input image and returns a new image.
-     */
-	public final JPanel getConfig() {
-		return controlPanel;
-	}
 
-	
 	public abstract String getTitle();
-    
-    /**
-     * Called by parent GUI to show Swing controls for configuration parameters for that specific operation
-     */
 
     /**
      * Applies this operation to the given input image and returns a new image.
      */
     public BufferedImage copyOf(BufferedImage src) {
-        BufferedImage copy = new BufferedImage(src.getWidth(), src.getHeight(), src.getType());
-        java.awt.Graphics g = copy.getGraphics();
-        g.drawImage(src, 0, 0, null);
-        g.dispose();
-        return copy;
+        return ImagePair.copyImage(src);
     }
 
 	@Override
@@ -133,9 +98,4 @@ public abstract class Operation implements Comparable<Operation> {
 		return hash1 - hash2;
 	}
 
-	public Redrawable getRedraw() {
-		return redraw;
-	}
-	
-	
 }
@@ -0,0 +1,105 @@
+package com.beder.texture;
+
+import java.awt.Component;
+import java.util.Random;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.JTextField;
+
+/**
+ * Swing adapter over an operation's declared parameters. Each Layer owns one,
+ * so the operation itself stays free of UI state and can be shared.
+ */
+class OperationControls {
+	private JPanel controlPanel;
+	private ParameterSchema schema;
+	private Component[] controls;
+	private Parameters initial;
+
+	/**
+	 * @param values the values to show at first, usually the layer's current ones
+	 */
+	OperationControls(Operation op, Parameters values) {
+		controlPanel = new JPanel();
+		schema = op.getSchema();
+		initial = values.copy();
+		controls = new Component[schema.size()];
+		for (int slot = 0; slot < controls.length; slot++) {
+			String name = schema.getName(slot);
+			double def = values.get(slot);
+			controlPanel.add(new JLabel(name));
+			switch (schema.getType(slot)) {
+			case INT:
+				JTextField intField = new JTextField(String.format("%d",(int)def), 4);
+				controls[slot] = intField;
+				controlPanel.add(intField);
+				break;
+			case DOUBLE:
+				JTextField doubleField = new JTextField(formatDouble(def), 5);
+				controls[slot] = doubleField;
+				controlPanel.add(doubleField);
+				break;
+		    case SLIDER:
+		        JSlider slider = new JSlider(0, 100, (int) def);
+		        slider.setMajorTickSpacing(20);
+		        slider.setMinorTickSpacing(5);
+		        slider.setPaintTicks(true);
+		        slider.setPaintLabels(true);
+		        controls[slot] = slider;
+		        controlPanel.add(slider);
+		        break;
+			case SEED:
+				JTextField seedField = new JTextField(String.format("%d", values.getLong(slot)), 8); // FIX: store to seedField
+			    controls[slot] = seedField;
+			    controlPanel.add(seedField);
+			    JButton randomSeedButton = new JButton("Random");
+			    randomSeedButton.addActionListener(e -> {
+			        String newSeed = String.valueOf(new Random().nextInt(Integer.MAX_VALUE));
+			        seedField.setText(newSeed);
+			    });
+			    controlPanel.add(randomSeedButton);
+			    break;
+			default:
+				break;
+			}
+		}
+	}
+
+	JPanel getPanel() {
+		return controlPanel;
+	}
+
+	/****
+	 * @return the values currently entered in the controls; unparseable fields keep the value they were built with
+	 */
+	Parameters getParameters() {
+	    Parameters param = initial.copy();
+	    for (int slot = 0; slot < controls.length; slot++) {
+	        Component c = controls[slot];
+	        try {
+	            if (c instanceof JTextField) {
+	                JTextField tf = (JTextField)c;
+	                param.set(slot, Double.parseDouble(tf.getText()));
+	            } else if (c instanceof JSlider) {
+	                JSlider s = (JSlider)c;
+	                param.set(slot, (double)s.getValue());
+	            }
+	        } catch (NumberFormatException e) {
+	            System.err.println("Invalid input for parameter: " + schema.getName(slot));
+	        }
+	    }
+	    return param;
+	}
+
+	/**
+	 * @return v with two decimals, or in full if two would change it, so an
+	 *         untouched field reads back as the value it was built with
+	 */
+	private static String formatDouble(double v) {
+		String s = String.format("%.2f", v);
+		return Double.parseDouble(s) == v ? s : Double.toString(v);
+	}
+}
@@ -0,0 +1,80 @@
+package com.beder.texture;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import com.beder.texture.adjust.ClampAdjust;
+import com.beder.texture.adjust.ContrastAdjust;
+import com.beder.texture.adjust.GammaAdjust;
+import com.beder.texture.adjust.InvertAdjust;
+import com.beder.texture.adjust.RemapAdjust;
+import com.beder.texture.mask.CopyMask;
+import com.beder.texture.mask.MixMask;
+import com.beder.texture.noise.CellNoiseGenerator;
+import com.beder.texture.noise.PerlinNoiseGenerator;
+import com.beder.texture.noise.SimplexNoiseGenerator;
+import com.beder.texture.noise.VegetationNoiseGenerator;
+import com.beder.texture.noise.VoronoiNoiseGenerator;
+import com.beder.texture.scatter.ScatterOperation;
+
+/**
+ * Creates operations by type name so stacks can be described outside the GUI.
+ * The type name of an operation is its title, lower case and without spaces
+ * (e.g. "Cell Noise" is "cellnoise").
+ */
+public class OperationFactory {
+	private static final Map<String, Supplier<Operation>> TYPES = new TreeMap<>();
+
+	static {
+		register(SimplexNoiseGenerator::new);
+		register(CellNoiseGenerator::new);
+		register(PerlinNoiseGenerator::new);
+		register(VoronoiNoiseGenerator::new);
+		register(VegetationNoiseGenerator::new);
+		register(ScatterOperation::new);
+		register(CopyMask::new);
+		register(MixMask::new);
+		register(RemapAdjust::new);
+		register(InvertAdjust::new);
+		register(ContrastAdjust::new);
+		register(ClampAdjust::new);
+		register(GammaAdjust::new);
+	}
+
+	private OperationFactory() {
+	}
+
+	private static void register(Supplier<Operation> ctor) {
+		// Instantiate once to learn the type name
+		Operation probe = ctor.get();
+		TYPES.put(typeOf(probe), ctor);
+	}
+
+	/**
+	 * @return the type name used to describe the given operation
+	 */
+	public static String typeOf(Operation op) {
+		return op.getTitle().replace(" ", "").toLowerCase();
+	}
+
+	/**
+	 * @return the known operation type names
+	 */
+	public static Iterable<String> getTypes() {
+		return Collections.unmodifiableSet(TYPES.keySet());
+	}
+
+	/**
+	 * Creates a new operation of the given type.
+	 * @throws IllegalArgumentException if the type is unknown
+	 */
+	public static Operation create(String type) {
+		Supplier<Operation> ctor = TYPES.get(type.replace(" ", "").toLowerCase());
+		if (ctor == null) {
+			throw new IllegalArgumentException("Unknown operation type: " + type);
+		}
+		return ctor.get();
+	}
+}
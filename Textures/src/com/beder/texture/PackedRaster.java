@@ -0,0 +1,197 @@
+package com.beder.texture;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.beder.texture.render.IntRaster;
+
+/**
+ * A losslessly compressed copy of an ARGB image or a FloatChannel, used to
+ * keep layers that are not being edited small on the heap.
+ * <p>
+ * Each row is delta filtered before deflating at BEST_SPEED. ARGB rows use
+ * PNG's Sub filter, the byte-wise difference from the pixel to the left.
+ * Float rows subtract each value's bits, read as an int, from its left
+ * neighbour's and store the four bytes of the difference as separate planes.
+ * Neighbouring values of smooth noise are close, so the high planes collapse
+ * to runs.
+ */
+final class PackedRaster {
+	private final boolean gray;
+	private final int width, height;
+	private final byte[] data;
+
+	private PackedRaster(boolean gray, int width, int height, byte[] data) {
+		this.gray = gray;
+		this.width = width;
+		this.height = height;
+		this.data = data;
+	}
+
+	static PackedRaster pack(BufferedImage img) {
+		IntRaster src = IntRaster.read(img);
+		int w = src.getWidth(), h = src.getHeight();
+		int[] pixels = src.getData();
+		byte[] row = new byte[w * 4];
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1 << 16];
+		for (int y = 0; y < h; y++) {
+			int in = src.rowOffset(y);
+			int prev = 0;
+			for (int x = 0; x < w; x++) {
+				int p = pixels[in + x];
+				int i = x * 4;
+				row[i] = (byte) ((p >>> 24) - (prev >>> 24));
+				row[i + 1] = (byte) ((p >>> 16) - (prev >>> 16));
+				row[i + 2] = (byte) ((p >>> 8) - (prev >>> 8));
+				row[i + 3] = (byte) (p - prev);
+				prev = p;
+			}
+			deflate(deflater, row, out, buf);
+		}
+		return new PackedRaster(false, w, h, finish(deflater, out, buf));
+	}
+
+	static PackedRaster pack(FloatChannel channel) {
+		int w = channel.getWidth(), h = channel.getHeight();
+		float[] values = channel.getData();
+		byte[] row = new byte[w * 4];
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1 << 16];
+		for (int y = 0; y < h; y++) {
+			int o = y * w;
+			int prev = 0;
+			for (int x = 0; x < w; x++) {
+				int bits = Float.floatToRawIntBits(values[o + x]);
+				int d = bits - prev;
+				row[x] = (byte) (d >>> 24);
+				row[w + x] = (byte) (d >>> 16);
+				row[2 * w + x] = (byte) (d >>> 8);
+				row[3 * w + x] = (byte) d;
+				prev = bits;
+			}
+			deflate(deflater, row, out, buf);
+		}
+		return new PackedRaster(true, w, h, finish(deflater, out, buf));
+	}
+
+	/**
+	 * @return true if this holds a FloatChannel rather than an ARGB image
+	 */
+	boolean isGray() {
+		return gray;
+	}
+
+	/**
+	 * @return the compressed size in bytes
+	 */
+	int size() {
+		return data.length;
+	}
+
+	/**
+	 * Writes the compressed form as is, for read() to load without inflating it.
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeBoolean(gray);
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	static PackedRaster read(DataInput in) throws IOException {
+		boolean gray = in.readBoolean();
+		int width = in.readInt(), height = in.readInt(), size = in.readInt();
+		if (width <= 0 || height <= 0 || size < 0) {
+			throw new IOException("Corrupt packed raster header");
+		}
+		byte[] data = new byte[size];
+		in.readFully(data);
+		return new PackedRaster(gray, width, height, data);
+	}
+
+	BufferedImage unpackImage() {
+		IntRaster dst = IntRaster.create(width, height);
+		int[] pixels = dst.getData();
+		byte[] row = new byte[width * 4];
+		Inflater inflater = new Inflater();
+		inflater.setInput(data);
+		for (int y = 0; y < height; y++) {
+			inflate(inflater, row);
+			int out = dst.rowOffset(y);
+			int a = 0, r = 0, g = 0, b = 0;
+			for (int x = 0; x < width; x++) {
+				int i = x * 4;
+				a = (a + row[i]) & 0xFF;
+				r = (r + row[i + 1]) & 0xFF;
+				g = (g + row[i + 2]) & 0xFF;
+				b = (b + row[i + 3]) & 0xFF;
+				pixels[out + x] = (a << 24) | (r << 16) | (g << 8) | b;
+			}
+		}
+		inflater.end();
+		return dst.getImage();
+	}
+
+	FloatChannel unpackChannel() {
+		FloatChannel channel = new FloatChannel(width, height);
+		float[] values = channel.getData();
+		int w = width;
+		byte[] row = new byte[w * 4];
+		Inflater inflater = new Inflater();
+		inflater.setInput(data);
+		for (int y = 0; y < height; y++) {
+			inflate(inflater, row);
+			int o = y * w;
+			int prev = 0;
+			for (int x = 0; x < w; x++) {
+				int d = (row[x] & 0xFF) << 24 | (row[w + x] & 0xFF) << 16
+						| (row[2 * w + x] & 0xFF) << 8 | (row[3 * w + x] & 0xFF);
+				prev += d;
+				values[o + x] = Float.intBitsToFloat(prev);
+			}
+		}
+		inflater.end();
+		return channel;
+	}
+
+	private static void deflate(Deflater deflater, byte[] row, ByteArrayOutputStream out, byte[] buf) {
+		deflater.setInput(row);
+		while (!deflater.needsInput()) {
+			out.write(buf, 0, deflater.deflate(buf));
+		}
+	}
+
+	private static byte[] finish(Deflater deflater, ByteArrayOutputStream out, byte[] buf) {
+		deflater.finish();
+		while (!deflater.finished()) {
+			out.write(buf, 0, deflater.deflate(buf));
+		}
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	private static void inflate(Inflater inflater, byte[] row) {
+		try {
+			int n = 0;
+			while (n < row.length) {
+				int got = inflater.inflate(row, n, row.length - n);
+				if (got == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new IllegalStateException("Packed raster is truncated");
+				}
+				n += got;
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.beder.texture;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.beder.texture.Operation.CONTROL_TYPE;
+import com.beder.texture.Operation.ParameterSpec;
+
+/**
+ * The parameters an operation declares, fixed into numbered slots in
+ * declaration order. Built once per operation, after its constructor has run,
+ * and shared by every Parameters block made for it.
+ */
+public final class ParameterSchema {
+	private final String[] names;
+	private final CONTROL_TYPE[] types;
+	private final double[] defaults;
+	private final Map<String, Integer> slots;
+
+	ParameterSchema(List<ParameterSpec> specs) {
+		int n = specs.size();
+		names = new String[n];
+		types = new CONTROL_TYPE[n];
+		defaults = new double[n];
+		slots = new HashMap<String, Integer>();
+		for (int i = 0; i < n; i++) {
+			ParameterSpec spec = specs.get(i);
+			names[i] = spec.name;
+			types[i] = spec.type;
+			defaults[i] = spec.def;
+			slots.put(spec.name, i);
+		}
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public String getName(int slot) {
+		return names[slot];
+	}
+
+	CONTROL_TYPE getType(int slot) {
+		return types[slot];
+	}
+
+	public double getDefault(int slot) {
+		return defaults[slot];
+	}
+
+	/**
+	 * @return true if the slot holds a random seed rather than a setting
+	 */
+	public boolean isSeed(int slot) {
+		return types[slot] == CONTROL_TYPE.SEED;
+	}
+
+	/**
+	 * @return the slot of the named parameter, or -1 if there is none
+	 */
+	public int slotOf(String name) {
+		Integer slot = slots.get(name);
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * @return a block holding every parameter's default
+	 */
+	public Parameters newParameters() {
+		return new Parameters(this, defaults.clone());
+	}
+}
@@ -1,17 +1,101 @@
 package com.beder.texture;
 
-import java.util.TreeMap;
-
-public class Parameters extends TreeMap<String, Double> {
-    public double get(String s, double def) {
-        if (containsKey(s)) {
-            return super.get(s); // FIX: use super.get to avoid recursive call
-        }
-        return def;
-    }
-
-    public void put(String key, String val) {
-        double d = Double.parseDouble(val);
-        put(key, d);
-    }
+import java.util.Arrays;
+
+/**
+ * The values of an operation's parameters, one per slot of its schema.
+ * Operations read them by the slot addParameter() returned; the name-based
+ * put() is for stack files. Two blocks are equal if they have the same schema
+ * and the same values, which makes them usable as keys and cheap to diff.
+ */
+public final class Parameters {
+	private final ParameterSchema schema;
+	private final double[] values;
+
+	Parameters(ParameterSchema schema, double[] values) {
+		this.schema = schema;
+		this.values = values;
+	}
+
+	public ParameterSchema getSchema() {
+		return schema;
+	}
+
+	public double get(int slot) {
+		return values[slot];
+	}
+
+	public int getInt(int slot) {
+		return (int) values[slot];
+	}
+
+	public long getLong(int slot) {
+		return (long) values[slot];
+	}
+
+	public void set(int slot, double value) {
+		values[slot] = value;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the operation has no such parameter
+	 */
+	public void put(String name, double value) {
+		int slot = schema.slotOf(name);
+		if (slot < 0) {
+			throw new IllegalArgumentException("Unknown parameter " + name);
+		}
+		values[slot] = value;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the name is unknown or the value is not a number
+	 */
+	public void put(String name, String val) {
+		put(name, Double.parseDouble(val));
+	}
+
+	public Parameters copy() {
+		return new Parameters(schema, values.clone());
+	}
+
+	/**
+	 * @return a hash of the values; blocks of different schemas may collide
+	 */
+	public long contentHash() {
+		long h = values.length;
+		for (double v : values) {
+			h = Long.rotateLeft(h ^ (Double.doubleToLongBits(v) * 0x9E3779B97F4A7C15L), 31) * 0xC2B2AE3D27D4EB4FL;
+		}
+		return h ^ (h >>> 32);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof Parameters)) {
+			return false;
+		}
+		Parameters p = (Parameters) o;
+		return schema == p.schema && Arrays.equals(values, p.values);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) contentHash();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(schema.getName(i)).append('=').append(values[i]);
+		}
+		return sb.toString();
+	}
 }
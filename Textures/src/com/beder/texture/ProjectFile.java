@@ -0,0 +1,127 @@
+package com.beder.texture;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import com.beder.texture.batch.StackDescription;
+
+/**
+ * A saved layer stack: a zip holding the stack as a "stack.txt" in the
+ * StackDescription format, which records each layer's operation and every
+ * parameter including its seed, plus an optional "layers/N.raster" entry per
+ * layer with its rendered output.
+ * <p>
+ * Only layers that were slow to render get a raster, in PackedRaster's
+ * compressed form, which is stored rather than deflated again. Opening reads
+ * the rasters without inflating them and renders nothing, so it takes about
+ * as long as reading the file; layers without a raster render when they are
+ * first shown or exported.
+ */
+public final class ProjectFile {
+	public static final String EXTENSION = "texproj";
+	private static final String STACK = "stack.txt";
+
+	private ProjectFile() {
+	}
+
+	/**
+	 * Saves the layers. Any clean layer whose last render took at least
+	 * embedMillis has its output embedded; a negative threshold embeds none.
+	 * Tiled outputs are never embedded.
+	 */
+	public static void write(File file, int res, List<Layer> layers, long embedMillis) throws IOException {
+		try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			zip.putNextEntry(new ZipEntry(STACK));
+			Writer text = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+			text.write("res " + res + "\n");
+			for (Layer l : layers) {
+				text.write(StackDescription.formatLayer(l.getOperation(), l.getParam()) + "\n");
+			}
+			text.flush();
+			zip.closeEntry();
+
+			for (int i = 0; i < layers.size(); i++) {
+				Layer l = layers.get(i);
+				ImagePair out = l.getOutput();
+				if (embedMillis < 0 || l.isDirty() || out == null
+						|| l.getRenderNanos() < embedMillis * 1_000_000L
+						|| out.getLeftTiled() != null || out.getRightTiled() != null) {
+					continue;
+				}
+				ByteArrayOutputStream raster = new ByteArrayOutputStream();
+				DataOutputStream data = new DataOutputStream(raster);
+				data.writeLong(l.getRenderNanos());
+				out.writePacked(data);
+				data.flush();
+
+				ZipEntry entry = new ZipEntry(rasterName(i));
+				CRC32 crc = new CRC32();
+				crc.update(raster.toByteArray());
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(raster.size());
+				entry.setCrc(crc.getValue());
+				zip.putNextEntry(entry);
+				raster.writeTo(zip);
+				zip.closeEntry();
+			}
+		}
+	}
+
+	/**
+	 * Reads the layers of a project. Embedded outputs are restored only if the
+	 * project was saved at the given resolution; otherwise those layers are
+	 * left to render like the rest.
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+	public static List<Layer> read(File file, int res) throws IOException {
+		try (ZipFile zip = new ZipFile(file)) {
+			ZipEntry stackEntry = zip.getEntry(STACK);
+			if (stackEntry == null) {
+				throw new IOException(file.getName() + " is not a texture project");
+			}
+			StackDescription desc;
+			try (InputStream in = zip.getInputStream(stackEntry)) {
+				desc = StackDescription.parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+			}
+			List<Layer> layers = new ArrayList<Layer>();
+			for (StackDescription.LayerSpec spec : desc.getLayers()) {
+				Layer l = new Layer(spec.getOperation());
+				l.setParam(spec.getParam());
+				layers.add(l);
+			}
+			if (desc.getRes() == res) {
+				for (int i = 0; i < layers.size(); i++) {
+					ZipEntry entry = zip.getEntry(rasterName(i));
+					if (entry == null) {
+						continue;
+					}
+					try (DataInputStream in = new DataInputStream(zip.getInputStream(entry))) {
+						long renderNanos = in.readLong();
+						layers.get(i).restore(ImagePair.readPacked(in), renderNanos);
+					}
+				}
+			}
+			return layers;
+		}
+	}
+
+	private static String rasterName(int layer) {
+		return "layers/" + layer + ".raster";
+	}
+}
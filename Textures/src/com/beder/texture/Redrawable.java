@@ -2,7 +2,6 @@ package com.beder.texture;
 
 import java.awt.event.MouseListener;
 
-public interface Redrawable extends MouseListener {
+public interface Redrawable extends RenderContext, MouseListener {
 	public abstract void applyImage(ImagePair pair);
-	public abstract int getRes();
 }
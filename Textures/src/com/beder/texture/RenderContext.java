@@ -0,0 +1,55 @@
+package com.beder.texture;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+
+import com.beder.texture.cache.RenderCache;
+
+/**
+ * Per-render settings handed to an operation with each request, so the
+ * operation itself does not depend on the Swing front end or any session.
+ */
+public interface RenderContext {
+	public abstract int getRes();
+
+	/**
+	 * @return the pool that tile work for this render runs on, or null to
+	 *         render sequentially on the calling thread
+	 */
+	public default ForkJoinPool getPool() {
+		return ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * @return the cache that operations may reuse earlier renders from, or
+	 *         null to always render
+	 */
+	public default RenderCache getCache() {
+		return RenderCache.getDefault();
+	}
+
+	/**
+	 * @return true once the render this context belongs to has been abandoned
+	 */
+	public default boolean isCancelled() {
+		return false;
+	}
+
+	/**
+	 * Called by long-running operations between units of work, so an
+	 * abandoned render stops early.
+	 * @throws CancellationException if the render has been abandoned
+	 */
+	public default void checkCancelled() {
+		if (isCancelled()) {
+			throw new CancellationException("Render cancelled");
+		}
+	}
+
+	/**
+	 * Reports how far the running operation has got, from 0 to 1. It is only
+	 * a hint for the UI and may be called from any thread.
+	 */
+	public default void reportProgress(double fraction) {
+	}
+}
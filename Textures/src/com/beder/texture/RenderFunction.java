@@ -0,0 +1,23 @@
+package com.beder.texture;
+
+/**
+ * Pure compute core of an operation: parameters and input rasters in, output
+ * rasters out. Implementations keep no state between calls, so a single
+ * instance can serve concurrent renders.
+ * <p>
+ * The input pair is handed over to the call, which may return it changed.
+ * Buffers are only written through the pair's writable accessors, which copy
+ * any buffer another pair still shares, so a caller that needs the input
+ * afterwards passes a copy(), as Layer.apply() does.
+ */
+public interface RenderFunction {
+
+	/**
+	 * Renders this operation for the given input.
+	 * @param ctx   render settings such as the output resolution
+	 * @param input the images produced by the previous layer, owned by the call
+	 * @param par   the parameter values to render with
+	 * @return the result, which may be input itself or share images with it
+	 */
+	public abstract ImagePair executeOperation(RenderContext ctx, ImagePair input, Parameters par);
+}
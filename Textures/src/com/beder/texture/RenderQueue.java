@@ -0,0 +1,133 @@
+package com.beder.texture;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+import com.beder.texture.render.RenderTask;
+
+/**
+ * Runs renders for the GUI on a single background thread, so the layer stack
+ * is only ever rendered by one job at a time while the EDT stays free.
+ * <p>
+ * Each request is filed under a key, normally the layer it renders. A newer
+ * request under the same key cancels the older one, whether it is still
+ * queued or already running. Results, including any previews, are handed
+ * back on the EDT, and only if the request was not cancelled in the meantime.
+ * So are failures, including errors such as running out of memory, which
+ * would otherwise leave the caller waiting for a result that never comes.
+ */
+public class RenderQueue {
+	private final ExecutorService executor;
+	private final Map<Object, RenderTask> latest = new HashMap<Object, RenderTask>();
+	private volatile RenderTask running;
+
+	/**
+	 * A render that may show intermediate results before its final one.
+	 */
+	@FunctionalInterface
+	public interface Job {
+		/**
+		 * @param ctx a cancellable view of the context the job was submitted with
+		 * @param preview accepts intermediate results, from the render thread
+		 * @return the final result
+		 */
+		ImagePair render(RenderContext ctx, Consumer<ImagePair> preview);
+	}
+
+	public RenderQueue() {
+		executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "Render");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Queues a render. Must be called on the EDT.
+	 * @param key requests under an equal key supersede each other
+	 * @param ctx the settings the render runs with
+	 * @param job the render itself
+	 * @param preview receives intermediate results on the EDT
+	 * @param done receives the result on the EDT
+	 * @param failed receives what the render threw, on the EDT, instead of done
+	 */
+	public void submit(Object key, RenderContext ctx, Job job, Consumer<ImagePair> preview, Consumer<ImagePair> done,
+			Consumer<Throwable> failed) {
+		RenderTask old = latest.get(key);
+		if (old != null) {
+			old.cancel();
+		}
+		RenderTask task = new RenderTask(ctx);
+		latest.put(key, task);
+		executor.execute(() -> {
+			if (task.isCancelled()) {
+				return;
+			}
+			running = task;
+			try {
+				ImagePair out = job.render(task, p -> SwingUtilities.invokeLater(() -> {
+					if (!task.isCancelled()) {
+						preview.accept(p);
+					}
+				}));
+				SwingUtilities.invokeLater(() -> {
+					latest.remove(key, task);
+					if (!task.isCancelled()) {
+						done.accept(out);
+					}
+				});
+			} catch (CancellationException e) {
+				// Superseded; the newer request is already queued
+			} catch (Throwable e) {
+				e.printStackTrace();
+				SwingUtilities.invokeLater(() -> {
+					latest.remove(key, task);
+					if (!task.isCancelled()) {
+						failed.accept(e);
+					}
+				});
+			} finally {
+				running = null;
+			}
+		});
+	}
+
+	/**
+	 * Cancels every queued and running render, for instance when the layers
+	 * they render are replaced. Must be called on the EDT.
+	 */
+	public void cancelAll() {
+		for (RenderTask task : latest.values()) {
+			task.cancel();
+		}
+		latest.clear();
+	}
+
+	/**
+	 * Queues background work that must not overlap a render, such as
+	 * compacting layers. It cannot be cancelled.
+	 */
+	public void execute(Runnable work) {
+		executor.execute(() -> {
+			try {
+				work.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		});
+	}
+
+	/**
+	 * @return the progress of the running render from 0 to 1, or -1 if idle
+	 */
+	public double getProgress() {
+		RenderTask task = running;
+		return task == null ? -1 : task.getProgress();
+	}
+}
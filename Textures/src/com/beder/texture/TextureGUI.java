@@ -1,6 +1,14 @@
 package com.beder.texture;
 
+import com.beder.texture.adjust.ClampAdjust;
+import com.beder.texture.adjust.ContrastAdjust;
+import com.beder.texture.adjust.GammaAdjust;
+import com.beder.texture.adjust.InvertAdjust;
+import com.beder.texture.adjust.RemapAdjust;
+import com.beder.texture.export.HeightmapWriter;
+import com.beder.texture.export.MipChain;
 import com.beder.texture.mask.CopyMask;
+import com.beder.texture.mask.MixMask;
 import com.beder.texture.noise.CellNoiseGenerator;
 import com.beder.texture.noise.PerlinNoiseGenerator;
 import com.beder.texture.noise.SimplexNoiseGenerator;
@@ -11,8 +19,8 @@ import com.beder.texture.scatter.ScatterOperation;
 import com.beder.texture.scatter.SpriteRepository;
 import net.miginfocom.swing.MigLayout;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
@@ -23,6 +31,8 @@ import java.io.IOException;
  * and delegates all control/logic operations to TextureGenius.
  */
 public class TextureGUI implements Redrawable {
+    /** How many pixels across the two images are shown at. */
+    static final int PREVIEW_SIZE = 512;
     private final TextureGenius genius;
     private final int res;
     private ImagePair curImage;
@@ -35,8 +45,12 @@ public class TextureGUI implements Redrawable {
     private ImageIcon rightIcon;
     private JButton generateButton;
     private JButton saveButton;
+    private JButton heightmapButton;
     private JButton scatterButton;
     private JButton loadImagesButton;
+    private JProgressBar progressBar;
+    private JComboBox<Integer> exportResBox;
+    private JComboBox<String> mipsBox;
 
     public TextureGUI(TextureGenius genius) {
         this.genius = genius;
@@ -55,8 +69,8 @@ public class TextureGUI implements Redrawable {
 
         // Center: image display with arrows
         imagePanel = new JPanel(new MigLayout("gapx 10px", "", "[center][center]"));
-        leftIcon = new ImageIcon(curImage.left.getScaledInstance(512, 512, Image.SCALE_SMOOTH));
-        rightIcon = new ImageIcon(curImage.right.getScaledInstance(512, 512, Image.SCALE_SMOOTH));
+        leftIcon = new ImageIcon(curImage.getLeftPreview(PREVIEW_SIZE).getScaledInstance(PREVIEW_SIZE, PREVIEW_SIZE, Image.SCALE_SMOOTH));
+        rightIcon = new ImageIcon(curImage.getRightPreview(PREVIEW_SIZE).getScaledInstance(PREVIEW_SIZE, PREVIEW_SIZE, Image.SCALE_SMOOTH));
         imagePanel.add(new JLabel(leftIcon));
 
         JPanel arrowsPanel = new JPanel();
@@ -87,6 +101,13 @@ public class TextureGUI implements Redrawable {
         // New Scatter button, enabled only when sprites available
         scatterButton = new JButton("Scatter");
 
+        // Adjustments of the left channel
+        JButton remapButton = new JButton("Remap");
+        JButton invertButton = new JButton("Invert");
+        JButton contrastButton = new JButton("Contrast");
+        JButton clampButton = new JButton("Clamp");
+        JButton gammaButton = new JButton("Gamma");
+
         // Configure Scatter dialog launcher
         loadImagesButton = new JButton("Load");
         loadImagesButton.addActionListener(e -> {
@@ -100,16 +121,46 @@ public class TextureGUI implements Redrawable {
         opPanel.add(voronoiButton);
         opPanel.add(vegetationButton);
         opPanel.add(scatterButton);
+        opPanel.add(remapButton);
+        opPanel.add(invertButton);
+        opPanel.add(contrastButton);
+        opPanel.add(clampButton);
+        opPanel.add(gammaButton);
+        JButton openProjectButton = new JButton("Open Project");
+        JButton saveProjectButton = new JButton("Save Project");
+        opPanel.add(openProjectButton);
+        opPanel.add(saveProjectButton);
+        progressBar = new JProgressBar(0, 1000);
+        progressBar.setVisible(false);
+        opPanel.add(progressBar);
         mainPanel.add(opPanel, BorderLayout.SOUTH);
 
         // North: operation configuration panel
         opControlPanel = new JPanel(new FlowLayout());
         generateButton = new JButton("Generate");
         saveButton  = new JButton("Save");
-        saveButton.addActionListener(e -> {
-            // 1) Permanently apply the current operation in the stack
-            ImagePair img = genius.saveCurrent();                                  // :contentReference[oaicite:0]{index=0}:contentReference[oaicite:1]{index=1}
-            applyImage(img);
+        heightmapButton = new JButton("Heightmap");
+        heightmapButton.setToolTipText("Export the left side as a 16-bit PNG or raw .r16/.r32 heightmap");
+        exportResBox = new JComboBox<>(new Integer[] {512, 1024, 2048, 4096, 8192});
+        mipsBox = new JComboBox<>(new String[] {"No mips", "Box mips", "Kaiser mips"});
+        mipsBox.setToolTipText("Also save each side's mip chain as a .dds");
+        exportResBox.setEditable(true);
+        exportResBox.setSelectedItem(genius.getExportRes());
+        exportResBox.setToolTipText("Export resolution");
+        exportResBox.addActionListener(e -> {
+            Object sel = exportResBox.getSelectedItem();
+            try {
+                int size = Integer.parseInt(sel.toString().trim());
+                if (size <= 0) {
+                    throw new NumberFormatException();
+                }
+                genius.setExportRes(size);
+            } catch (NumberFormatException ex) {
+                exportResBox.setSelectedItem(genius.getExportRes());
+            }
+        });
+        saveButton.addActionListener(e -> genius.saveCurrent(img -> {
+            // 1) The current operation has been permanently applied and shown
 
             // 2) Prompt the user for a file location
             JFileChooser chooser = new JFileChooser();
@@ -121,20 +172,39 @@ public class TextureGUI implements Redrawable {
                 File leftFile  = new File(base.getParentFile(), name + "_left.png");
                 File rightFile = new File(base.getParentFile(), name + "_right.png");
 
-                // 3) Write out both left/right images
-                try {
-                    ImageIO.write(curImage.left,  "png", leftFile);
-                    ImageIO.write(curImage.right, "png", rightFile);
-                } catch (IOException ex) {
+                // 3) Write out both left/right images at export resolution, off the EDT
+                MipChain.Filter[] filters = { null, MipChain.Filter.BOX, MipChain.Filter.KAISER };
+                genius.exportImages(img, leftFile, rightFile, filters[mipsBox.getSelectedIndex()], ex ->
                     JOptionPane.showMessageDialog(
                         frame,
                         "Failed to save image: " + ex.getMessage(),
                         "Save Error",
                         JOptionPane.ERROR_MESSAGE
-                    );
+                    ));
+            }
+        }));
+        heightmapButton.addActionListener(e -> genius.saveCurrent(img -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Export Heightmap");
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter("16-bit PNG", HeightmapWriter.PNG16));
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter("Raw 16-bit (.r16)", HeightmapWriter.UINT16));
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter("Raw float (.r32)", HeightmapWriter.FLOAT32));
+            chooser.setSelectedFile(new File("heightmap.png"));
+            if (chooser.showSaveDialog(frame) == JFileChooser.APPROVE_OPTION) {
+                File file = chooser.getSelectedFile();
+                if (!file.getName().contains(".") && chooser.getFileFilter() instanceof FileNameExtensionFilter) {
+                    String ext = ((FileNameExtensionFilter) chooser.getFileFilter()).getExtensions()[0];
+                    file = new File(file.getParentFile(), file.getName() + "." + ext);
                 }
+                genius.exportHeightmap(img, file, ex ->
+                    JOptionPane.showMessageDialog(
+                        frame,
+                        "Failed to export heightmap: " + ex.getMessage(),
+                        "Export Error",
+                        JOptionPane.ERROR_MESSAGE
+                    ));
             }
-        });
+        }));
         mainPanel.add(opControlPanel, BorderLayout.NORTH);
 
         frame.getContentPane().add(mainPanel);
@@ -143,23 +213,30 @@ public class TextureGUI implements Redrawable {
         frame.setVisible(true);
 
         // --- Action Listeners ---
-        saveButton.addActionListener(e -> {
-            ImagePair img = genius.saveCurrent();
-            applyImage(img);
-        });
-        generateButton.addActionListener(e -> {
-            ImagePair img = genius.applyCurrent();
-            applyImage(img);
-        });
-
-        simplexButton.addActionListener(e -> addOperation(new SimplexNoiseGenerator(this)));
-        cellNoiseButton.addActionListener(e -> addOperation(new CellNoiseGenerator(this)));
-        perlinButton.addActionListener(e -> addOperation(new PerlinNoiseGenerator(this)));
-        voronoiButton.addActionListener(e -> addOperation(new VoronoiNoiseGenerator(this)));
-        vegetationButton.addActionListener(e -> addOperation(new VegetationNoiseGenerator(this)));
-        scatterButton.addActionListener(e -> addOperation(new ScatterOperation(this)));
-        copyButton.addActionListener(e -> addOperation(new CopyMask(this)));
-        //mixButton.addActionListener(e -> addOperation(new MixMask(this)));
+        generateButton.addActionListener(e -> genius.applyCurrent());
+
+        // Poll the render thread at 30 fps rather than have it flood the EDT
+        new Timer(33, e -> {
+            double p = genius.getProgress();
+            progressBar.setVisible(p >= 0);
+            progressBar.setValue((int) (Math.max(0, p) * progressBar.getMaximum()));
+        }).start();
+
+        simplexButton.addActionListener(e -> addOperation(new SimplexNoiseGenerator()));
+        cellNoiseButton.addActionListener(e -> addOperation(new CellNoiseGenerator()));
+        perlinButton.addActionListener(e -> addOperation(new PerlinNoiseGenerator()));
+        voronoiButton.addActionListener(e -> addOperation(new VoronoiNoiseGenerator()));
+        vegetationButton.addActionListener(e -> addOperation(new VegetationNoiseGenerator()));
+        scatterButton.addActionListener(e -> addOperation(new ScatterOperation()));
+        remapButton.addActionListener(e -> addOperation(new RemapAdjust()));
+        invertButton.addActionListener(e -> addOperation(new InvertAdjust()));
+        contrastButton.addActionListener(e -> addOperation(new ContrastAdjust()));
+        clampButton.addActionListener(e -> addOperation(new ClampAdjust()));
+        gammaButton.addActionListener(e -> addOperation(new GammaAdjust()));
+        copyButton.addActionListener(e -> addOperation(new CopyMask()));
+        openProjectButton.addActionListener(e -> openProject());
+        saveProjectButton.addActionListener(e -> saveProject());
+        mixButton.addActionListener(e -> addOperation(new MixMask()));
     }
     
     /****
@@ -168,25 +245,60 @@ public class TextureGUI implements Redrawable {
      */
     private void addOperation(Operation op) {
         if (genius.isClean()) {
-            ImagePair img = genius.addOperation(op);
-            applyImage(img);
+            genius.addOperation(op);
             showOptions();
             frame.repaint();
         }
     }
 
+    private JFileChooser projectChooser(String title) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle(title);
+        chooser.setFileFilter(new FileNameExtensionFilter("Texture projects", ProjectFile.EXTENSION));
+        return chooser;
+    }
+
+    private void openProject() {
+        JFileChooser chooser = projectChooser("Open Project");
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            genius.openProject(chooser.getSelectedFile());
+            frame.repaint();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(frame, "Failed to open project: " + ex.getMessage(),
+                    "Open Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void saveProject() {
+        JFileChooser chooser = projectChooser("Save Project");
+        chooser.setSelectedFile(new File("texture." + ProjectFile.EXTENSION));
+        if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        if (!file.getName().contains(".")) {
+            file = new File(file.getParentFile(), file.getName() + "." + ProjectFile.EXTENSION);
+        }
+        genius.saveProject(file, ex -> JOptionPane.showMessageDialog(frame,
+                "Failed to save project: " + ex.getMessage(), "Save Error", JOptionPane.ERROR_MESSAGE));
+    }
+
     /**
      * Display the configuration controls for the currently selected operation.
      */
     public void showOptions() {
         opControlPanel.removeAll();
-        Operation op = genius.getCurrentOperation();
+        Layer layer = genius.getCurrentLayer();
+        Operation op = layer.getOperation();
 
         JPanel controlPanel = new JPanel(new FlowLayout());
         controlPanel.setBorder(
             BorderFactory.createTitledBorder(op.getTitle() + " Options")
         );
-        controlPanel.add(op.getConfig());
+        controlPanel.add(layer.getConfig());
 
         if (op instanceof ScatterOperation) {
             // ① show the Configure-dialog launcher
@@ -202,6 +314,9 @@ public class TextureGUI implements Redrawable {
         controlPanel.add(generateButton);
         opControlPanel.add(controlPanel);
         opControlPanel.add(saveButton);
+        opControlPanel.add(heightmapButton);
+        opControlPanel.add(exportResBox);
+        opControlPanel.add(mipsBox);
         opControlPanel.revalidate();
         opControlPanel.repaint();
     }
@@ -212,13 +327,21 @@ public class TextureGUI implements Redrawable {
     @Override
     public void applyImage(ImagePair current) {
         this.curImage = current;
-        leftIcon.setImage(current.left.getScaledInstance(512, 512, Image.SCALE_SMOOTH));
-        rightIcon.setImage(current.right.getScaledInstance(512, 512, Image.SCALE_SMOOTH));
+        leftIcon.setImage(current.getLeftPreview(PREVIEW_SIZE).getScaledInstance(PREVIEW_SIZE, PREVIEW_SIZE, Image.SCALE_SMOOTH));
+        rightIcon.setImage(current.getRightPreview(PREVIEW_SIZE).getScaledInstance(PREVIEW_SIZE, PREVIEW_SIZE, Image.SCALE_SMOOTH));
         ((JLabel) imagePanel.getComponent(0)).setIcon(leftIcon); // FIX: reset JLabel icon
         ((JLabel) imagePanel.getComponent(2)).setIcon(rightIcon);
         imagePanel.revalidate();
         imagePanel.repaint();
     }    
+
+    /**
+     * Tells the user a render failed, for instance by running out of memory,
+     * so it is not mistaken for one still running. Must be called on the EDT.
+     */
+    public void showRenderError(Throwable error) {
+        JOptionPane.showMessageDialog(frame, "Render failed: " + error, "Render Error", JOptionPane.ERROR_MESSAGE);
+    }
     
     @Override
     public int getRes() {
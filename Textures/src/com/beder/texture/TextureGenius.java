@@ -1,40 +1,83 @@
 package com.beder.texture;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import com.beder.texture.export.HeightmapWriter;
+import com.beder.texture.export.MipChain;
+import com.beder.texture.export.PngWriter;
+import com.beder.texture.render.ForwardingContext;
 
 /**
  * TextureGenius handles all control and logic: managing the operation stack,
  * current image state, and dirty/save/apply workflows.
  * It delegates UI rendering to TextureGUI.
  */
-public class TextureGenius {
+public class TextureGenius implements RenderContext {
     private final int res;
+    private volatile int exportRes;
     private final LayerStack stack;
+    private final RenderQueue queue;
+    private static final Object EXPORT = new Object();
     private ImagePair curImage;
     private boolean isDirty;
 	private TextureGUI gui;
 
+    /**
+     * Usage: TextureGenius [previewRes [exportRes]], both 1024 by default.
+     */
     public static void main(String[] args) {
         // Initialize logic and launch GUI
-        TextureGenius genius = new TextureGenius(1024);
+        int previewRes = args.length > 0 ? Integer.parseInt(args[0]) : Operation.REFERENCE_RES;
+        int exportRes = args.length > 1 ? Integer.parseInt(args[1]) : previewRes;
+        TextureGenius genius = new TextureGenius(previewRes, exportRes);
         genius.gui = new TextureGUI(genius);
         genius.gui.init();
     }
 
     public TextureGenius(int res) {
+        this(res, res);
+    }
+
+    /**
+     * @param res the resolution layers are edited and previewed at
+     * @param exportRes the resolution saved textures are rendered at
+     */
+    public TextureGenius(int res, int exportRes) {
         this.res = res;
+        this.exportRes = exportRes;
         this.stack = new LayerStack(this);
+        this.queue = new RenderQueue();
         this.curImage = new ImagePair(res);
         this.isDirty = false;
     }
 
     /**
-     * Returns the configured resolution.
+     * Returns the resolution layers are edited and previewed at.
      */
+    @Override
     public int getRes() {
         return res;
     }
 
+    public int getExportRes() {
+        return exportRes;
+    }
+
+    /**
+     * Sets the resolution Save renders at. Operations sample a resolution
+     * independent domain, so the result matches the preview.
+     */
+    public void setExportRes(int exportRes) {
+        this.exportRes = exportRes;
+    }
+
     /**
      * Returns true if there are no unapplied changes.
      */
@@ -50,61 +93,230 @@ public class TextureGenius {
     }
 
     /**
-     * Retrieves the currently selected operation for configuring its UI.
+     * Retrieves the currently selected layer for configuring its UI.
      */
-    public Operation getCurrentOperation() {
-        return stack.getCurrent().getOperation();
+    public Layer getCurrentLayer() {
+        return stack.getCurrent();
     }
 
     /**
-     * Adds a new operation to the stack and marks the state as dirty.
+     * Adds a new operation to the stack and marks the state as dirty. The
+     * image feeding it is rendered in the background and then shown.
      */
-    public ImagePair addOperation(Operation op) {
-    	Layer current = stack.getCurrent();
-		ImagePair input = current == null ? new ImagePair(res) : current.getOutput();
-		Layer l = new Layer(op, input);
+    public void addOperation(Operation op) {
+		Layer l = new Layer(op);
 		stack.add(l);
-		stack.buildStackPanel();
-		gui.applyImage(input);
-        this.curImage = input;
         this.isDirty = true;
-        return input;
+		render(stack.getLayer(stack.curPtr - 1), false, null);
     }
 
     /**
      * Applies the current operation (without saving), marking the state dirty.
+     * Rough low-resolution passes are shown first. A previous request for the
+     * same layer that is still running is cancelled, passes and all.
      */
-    public ImagePair applyCurrent() {
-	    Layer l = stack.getCurrent();
+    public void applyCurrent() {
 	    // ← grab the sliders/textfields before we execute
-	    Parameters p = l.getOperation().getUIParameters();
-	    l.setParam(p);
-	    ImagePair output = l.apply(l.getInput());        
-	    this.curImage = output;
+	    boolean changed = updateCurrentParam();
+	    if (changed) {
+	        stack.buildStackPanel();
+	    }
         this.isDirty = true;
-        return output;
+        render(stack.getCurrent(), true, null);
+    }
+
+    /**
+     * Saves (applies permanently) the current operation and clears the dirty
+     * flag once it has rendered. If the export resolution differs from the
+     * preview's, the stack is then rendered again at export resolution. If
+     * either render fails the user is told and then is not called.
+     * @param then receives the image to write on the EDT, or null
+     */
+    public void saveCurrent(Consumer<ImagePair> then) {
+        updateCurrentParam();
+        Layer target = stack.getCurrent();
+        render(target, false, output -> {
+            this.isDirty = false;
+            if (then == null) {
+                return;
+            }
+            int size = exportRes;
+            if (size == res) {
+                then.accept(output);
+                return;
+            }
+            RenderContext export = new ForwardingContext(this) {
+                @Override
+                public int getRes() {
+                    return size;
+                }
+            };
+            queue.submit(EXPORT, export, (ctx, preview) -> stack.renderDetached(ctx, target), p -> {}, then,
+                    gui::showRenderError);
+        });
+    }
+
+    /**
+     * Saves the stack as a project on the render thread, once any render in
+     * progress is done. Layers whose last render took at least
+     * textures.project.embedMs milliseconds, 1000 by default, are saved with
+     * their output so opening the project does not need to render them again.
+     * @param failed receives the error on the EDT if the file cannot be written
+     */
+    public void saveProject(File file, Consumer<IOException> failed) {
+        long embedMillis = Long.getLong("textures.project.embedMs", 1000);
+        List<Layer> layers = stack.getLayers();
+        queue.execute(() -> {
+            try {
+                ProjectFile.write(file, res, layers, embedMillis);
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> failed.accept(e));
+            }
+        });
+    }
+
+    /**
+     * Writes both sides of an image as PNGs on the render thread, once any
+     * render in progress is done, so the EDT stays responsive.
+     * @param mips the filter to write each side's mip chain with, to a .dds
+     *        beside its PNG, or null for none
+     * @param failed receives the error on the EDT if a file cannot be written
+     */
+    public void exportImages(ImagePair img, File leftFile, File rightFile, MipChain.Filter mips, Consumer<IOException> failed) {
+        queue.execute(() -> {
+            try {
+                PngWriter.writePair(img, leftFile, rightFile);
+                if (mips != null) {
+                    MipChain.writeLeft(img, mips, getPool(), ddsFile(leftFile));
+                    MipChain.writeRight(img, mips, getPool(), ddsFile(rightFile));
+                }
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> failed.accept(e));
+            }
+        });
+    }
+
+    private static File ddsFile(File png) {
+        String name = png.getName().replaceFirst("(\\.[^.]+)?$", "");
+        return new File(png.getParentFile(), name + "." + MipChain.EXTENSION);
+    }
+
+    /**
+     * Writes the left side as a heightmap on the render thread, in the format
+     * the file's extension names; see HeightmapWriter.
+     * @param failed receives the error on the EDT if the file cannot be written
+     */
+    public void exportHeightmap(ImagePair img, File file, Consumer<IOException> failed) {
+        queue.execute(() -> {
+            try {
+                HeightmapWriter.writeLeft(img, file);
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> failed.accept(e));
+            }
+        });
+    }
+
+    /**
+     * Replaces the stack with a saved project. Nothing is rendered here:
+     * the top layer is selected and shown only if its output was saved with
+     * the project, and every other layer renders when it is first selected
+     * or exported.
+     * @throws IOException if the project cannot be read
+     */
+    public void openProject(File file) throws IOException {
+        List<Layer> layers = ProjectFile.read(file, res);
+        queue.cancelAll();
+        stack.replace(layers);
+        this.isDirty = false;
+        Layer top = stack.getCurrent();
+        if (top == null) {
+            return;
+        }
+        if (top.getOutput() != null) {
+            newCurrent();
+        } else {
+            gui.showOptions();
+            this.curImage = new ImagePair(res);
+            gui.applyImage(curImage);
+        }
+    }
+
+    /**
+     * Re-renders only the stale layers up to the top of the stack and shows the result.
+     */
+    public void renderToTop() {
+        render(stack.getTop(), false, null);
     }
 
     /**
-     * Saves (applies permanently) the current operation and clears the dirty flag.
+     * Renders up to the given layer on the render thread, then shows the
+     * result and refreshes the stack tiles on the EDT.
+     * @param progressive whether to show low-resolution passes first
      */
-    public ImagePair saveCurrent() {
+    private void render(Layer target, boolean progressive, Consumer<ImagePair> then) {
+        Object key = target == null ? stack : target;
+        RenderQueue.Job job = progressive
+                ? (ctx, preview) -> stack.renderProgressive(ctx, target, preview)
+                : (ctx, preview) -> stack.renderTo(ctx, target);
+        queue.submit(key, this, job, gui::applyImage, output -> {
+            this.curImage = output;
+            gui.applyImage(output);
+            stack.buildStackPanel();
+            if (then != null) {
+                then.accept(output);
+            }
+        }, gui::showRenderError);
+    }
+
+    /**
+     * @return how far the running render has got from 0 to 1, or -1 if idle
+     */
+    public double getProgress() {
+        return queue.getProgress();
+    }
+
+    /**
+     * Copies the UI parameters into the current layer. If they changed, the
+     * layer and everything above it is marked dirty.
+     * @return true if the parameters changed
+     */
+    private boolean updateCurrentParam() {
         Layer l = stack.getCurrent();
-        Parameters p = l.getOperation().getUIParameters();
+        Parameters p = l.getUIParameters();
+        if (p.equals(l.getParam())) {
+            return false;
+        }
         l.setParam(p);
-        stack.buildStackPanel();
-        ImagePair output = l.apply(l.getInput());
-        this.curImage = output;
-        this.isDirty = false;
-        return output;
+        stack.invalidate(l);
+        return true;
     }
     
+    /**
+     * Shows the newly selected layer. Its snapshot is unpacked off the EDT,
+     * after which the other layers are compacted on the render thread. A
+     * layer that has never been rendered, such as one just opened from a
+     * project, is rendered now.
+     */
     public void newCurrent() {
         Layer l = stack.getCurrent();
-        if (l != null && l.getOutput() != null) {
-            gui.applyImage(l.getOutput());
-            gui.showOptions();
+        if (l == null) {
+            return;
+        }
+        ImagePair output = l.getOutput();
+        gui.showOptions();
+        if (output == null) {
+            render(l, true, null);
+            return;
         }
+        CompletableFuture.runAsync(() -> {
+            output.getLeftPreview(TextureGUI.PREVIEW_SIZE);
+            output.getRightPreview(TextureGUI.PREVIEW_SIZE);
+        }).thenRun(() -> SwingUtilities.invokeLater(() -> {
+            if (stack.getCurrent() == l) {
+                gui.applyImage(output);
+            }
+        }));
+        queue.execute(() -> stack.compactInactive(output));
     }
 
     /**
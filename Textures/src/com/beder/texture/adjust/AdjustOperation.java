@@ -0,0 +1,93 @@
+package com.beder.texture.adjust;
+
+import com.beder.texture.FloatChannel;
+import com.beder.texture.ImagePair;
+import com.beder.texture.Operation;
+import com.beder.texture.Parameters;
+import com.beder.texture.RenderContext;
+import com.beder.texture.render.TileRenderer;
+import com.beder.texture.render.TiledChannel;
+import com.beder.texture.render.TiledImage;
+
+/**
+ * An operation that maps every value of the left channel through the same
+ * function; the right side is passed on as it is. A channel on the heap is
+ * adjusted in place, in bands of rows on the render pool, each band as one
+ * run of a GrayKernels kernel. It is taken through getWritableLeftChannel(),
+ * so a channel no other pair refers to is not copied, and one that is shared
+ * is copied first and the other pairs keep the original. A tiled left side is
+ * streamed a band of tile rows at a time into a new TiledChannel instead, so
+ * it is never held on the heap whole.
+ */
+public abstract class AdjustOperation extends Operation {
+	private static final int BAND = 64;
+
+	/**
+	 * Adjusts n values of src from s into dst from d, like the GrayKernels.
+	 */
+	@FunctionalInterface
+	protected interface Adjustment {
+		void apply(float[] src, int s, float[] dst, int d, int n);
+	}
+
+	/**
+	 * Copies rows [y0, y0 + rows) into dst with a stride of the image width.
+	 */
+	private interface RowSource {
+		void read(int y0, int rows, float[] dst);
+	}
+
+	/**
+	 * @return the adjustment the parameters describe
+	 */
+	protected abstract Adjustment prepare(Parameters par);
+
+	@Override
+	public ImagePair executeOperation(RenderContext ctx, ImagePair pair, Parameters par) {
+		Adjustment adjustment = prepare(par);
+		TiledChannel tiledChannel = pair.getLeftTiledChannel();
+		if (tiledChannel != null) {
+			return pair.withLeft(adjustTiled(ctx, tiledChannel.getWidth(), tiledChannel.getHeight(), tiledChannel::readRows, adjustment));
+		}
+		TiledImage tiled = pair.getLeftTiled();
+		if (tiled != null) {
+			return pair.withLeft(adjustTiled(ctx, tiled.getWidth(), tiled.getHeight(), intensities(tiled), adjustment));
+		}
+		FloatChannel channel = pair.getWritableLeftChannel();
+		int w = channel.getWidth(), h = channel.getHeight();
+		float[] data = channel.getData();
+		TileRenderer.forEachBand(ctx.getPool(), h, BAND, (y0, y1) -> {
+			ctx.checkCancelled();
+			adjustment.apply(data, y0 * w, data, y0 * w, (y1 - y0) * w);
+		});
+		return pair;
+	}
+
+	/**
+	 * @return the tiles' pixels decoded as FloatChannel.fromImage() would
+	 */
+	private static RowSource intensities(TiledImage tiled) {
+		int w = tiled.getWidth();
+		return (y0, rows, dst) -> {
+			int[] pixels = new int[rows * w];
+			tiled.readRows(y0, rows, pixels);
+			for (int i = 0; i < pixels.length; i++) {
+				dst[i] = FloatChannel.intensity(pixels[i]);
+			}
+		};
+	}
+
+	private static TiledChannel adjustTiled(RenderContext ctx, int w, int h, RowSource src, Adjustment adjustment) {
+		TiledChannel dst = new TiledChannel(w, h);
+		TileRenderer.forEachBand(ctx.getPool(), h, TiledChannel.TILE_SIZE, (y0, y1) -> {
+			ctx.checkCancelled();
+			int n = (y1 - y0) * w;
+			float[] band = new float[n];
+			src.read(y0, y1 - y0, band);
+			// Rows are back to back, so the band is one run
+			adjustment.apply(band, 0, band, 0, n);
+			dst.writeRows(y0, y1 - y0, band);
+		});
+		return dst;
+	}
+}
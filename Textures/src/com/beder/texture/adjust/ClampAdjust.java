@@ -0,0 +1,32 @@
+package com.beder.texture.adjust;
+
+import com.beder.texture.Parameters;
+
+/**
+ * Clamps the left channel to [Low, High].
+ */
+public class ClampAdjust extends AdjustOperation {
+	private final int lowSlot, highSlot;
+
+	public ClampAdjust() {
+		super();
+		lowSlot = addParameter("Low", CONTROL_TYPE.DOUBLE, 0);
+		highSlot = addParameter("High", CONTROL_TYPE.DOUBLE, 1);
+	}
+
+	@Override
+	protected Adjustment prepare(Parameters par) {
+		float lo = (float) par.get(lowSlot), hi = (float) par.get(highSlot);
+		return (src, s, dst, d, n) -> GrayKernels.clamp(src, s, dst, d, n, lo, hi);
+	}
+
+	@Override
+	public String getDescription() {
+		return "Clamp: limit the left channel to Low..High";
+	}
+
+	@Override
+	public String getTitle() {
+		return "Clamp";
+	}
+}
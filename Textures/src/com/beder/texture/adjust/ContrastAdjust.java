@@ -0,0 +1,33 @@
+package com.beder.texture.adjust;
+
+import com.beder.texture.Parameters;
+
+/**
+ * Scales the left channel's distance from mid gray by Contrast: above 1
+ * pushes values apart, below 1 pulls them towards 0.5, and 0 flattens them.
+ */
+public class ContrastAdjust extends AdjustOperation {
+	private final int contrastSlot;
+
+	public ContrastAdjust() {
+		super();
+		contrastSlot = addParameter("Contrast", CONTROL_TYPE.DOUBLE, 1.5);
+	}
+
+	@Override
+	protected Adjustment prepare(Parameters par) {
+		double c = par.get(contrastSlot);
+		float scale = (float) c, offset = (float) (0.5 - 0.5 * c);
+		return (src, s, dst, d, n) -> GrayKernels.affine(src, s, dst, d, n, scale, offset);
+	}
+
+	@Override
+	public String getDescription() {
+		return "Contrast: (v - 0.5) * Contrast + 0.5 on the left channel";
+	}
+
+	@Override
+	public String getTitle() {
+		return "Contrast";
+	}
+}
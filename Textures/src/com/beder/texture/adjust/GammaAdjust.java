@@ -0,0 +1,34 @@
+package com.beder.texture.adjust;
+
+import com.beder.texture.Parameters;
+
+/**
+ * Raises the left channel, clamped to [0,1], to the power 1 / Gamma, so a
+ * Gamma above 1 brightens the midtones and below 1 darkens them. The curve is
+ * looked up in a GrayKernels table rather than computed per value.
+ */
+public class GammaAdjust extends AdjustOperation {
+	private static final double MIN_GAMMA = 0.01;
+	private final int gammaSlot;
+
+	public GammaAdjust() {
+		super();
+		gammaSlot = addParameter("Gamma", CONTROL_TYPE.DOUBLE, 2.2);
+	}
+
+	@Override
+	protected Adjustment prepare(Parameters par) {
+		float[] table = GrayKernels.powerTable(1 / Math.max(MIN_GAMMA, par.get(gammaSlot)));
+		return (src, s, dst, d, n) -> GrayKernels.curve(src, s, dst, d, n, table);
+	}
+
+	@Override
+	public String getDescription() {
+		return "Gamma: v^(1/Gamma) on the left channel, clamped to 0..1";
+	}
+
+	@Override
+	public String getTitle() {
+		return "Gamma";
+	}
+}
@@ -0,0 +1,90 @@
+package com.beder.texture.adjust;
+
+import com.beder.texture.render.VectorSupport;
+
+/**
+ * Per-pixel math on runs of grayscale values, the building blocks of the
+ * adjust operations. Each kernel reads n values of src from s and writes n
+ * values of dst from d; src and dst may be the same array and range, so a
+ * channel can be adjusted in place.
+ * <p>
+ * Kernels use the Vector API where VectorSupport says it is available, and
+ * otherwise scalar loops doing the same float operations in the same order,
+ * so both give identical results.
+ */
+public final class GrayKernels {
+	/** The number of straight segments a curve table approximates its curve with. */
+	public static final int CURVE_SEGMENTS = 4096;
+
+	private static final boolean VECTOR = VectorSupport.isAvailable();
+
+	private GrayKernels() {
+	}
+
+	/**
+	 * dst = src * scale + offset. Remap, invert and contrast are all this.
+	 */
+	public static void affine(float[] src, int s, float[] dst, int d, int n, float scale, float offset) {
+		if (VECTOR) {
+			VectorGray.affine(src, s, dst, d, n, scale, offset);
+		} else {
+			affineScalar(src, s, dst, d, n, scale, offset);
+		}
+	}
+
+	/**
+	 * dst = src clamped to [lo, hi].
+	 */
+	public static void clamp(float[] src, int s, float[] dst, int d, int n, float lo, float hi) {
+		if (VECTOR) {
+			VectorGray.clamp(src, s, dst, d, n, lo, hi);
+		} else {
+			clampScalar(src, s, dst, d, n, lo, hi);
+		}
+	}
+
+	/**
+	 * dst = the curve at src clamped to [0,1], interpolated linearly in a
+	 * table from curveTable().
+	 */
+	public static void curve(float[] src, int s, float[] dst, int d, int n, float[] table) {
+		if (VECTOR) {
+			VectorGray.curve(src, s, dst, d, n, table);
+		} else {
+			curveScalar(src, s, dst, d, n, table);
+		}
+	}
+
+	/**
+	 * @return the table for curve() of v^exponent on [0,1]
+	 */
+	public static float[] powerTable(double exponent) {
+		float[] table = new float[CURVE_SEGMENTS + 1];
+		for (int i = 0; i <= CURVE_SEGMENTS; i++) {
+			table[i] = (float) Math.pow((double) i / CURVE_SEGMENTS, exponent);
+		}
+		return table;
+	}
+
+	static void affineScalar(float[] src, int s, float[] dst, int d, int n, float scale, float offset) {
+		for (int i = 0; i < n; i++) {
+			dst[d + i] = src[s + i] * scale + offset;
+		}
+	}
+
+	static void clampScalar(float[] src, int s, float[] dst, int d, int n, float lo, float hi) {
+		for (int i = 0; i < n; i++) {
+			dst[d + i] = Math.min(Math.max(src[s + i], lo), hi);
+		}
+	}
+
+	static void curveScalar(float[] src, int s, float[] dst, int d, int n, float[] table) {
+		for (int i = 0; i < n; i++) {
+			float v = Math.min(Math.max(src[s + i], 0f), 1f) * CURVE_SEGMENTS;
+			int k = Math.min((int) v, CURVE_SEGMENTS - 1);
+			float f = v - k;
+			float a = table[k];
+			dst[d + i] = a + (table[k + 1] - a) * f;
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package com.beder.texture.adjust;
+
+import com.beder.texture.Parameters;
+
+/**
+ * Turns every value v of the left channel into 1 - v.
+ */
+public class InvertAdjust extends AdjustOperation {
+
+	public InvertAdjust() {
+		super();
+	}
+
+	@Override
+	protected Adjustment prepare(Parameters par) {
+		return (src, s, dst, d, n) -> GrayKernels.affine(src, s, dst, d, n, -1f, 1f);
+	}
+
+	@Override
+	public String getDescription() {
+		return "Invert: 1 - v on the left channel";
+	}
+
+	@Override
+	public String getTitle() {
+		return "Invert";
+	}
+}
@@ -0,0 +1,40 @@
+package com.beder.texture.adjust;
+
+import com.beder.texture.Parameters;
+
+/**
+ * Stretches [InLow, InHigh] of the left channel linearly onto
+ * [OutLow, OutHigh]. Values outside the input range are extrapolated, not
+ * clamped; follow with Clamp for that.
+ */
+public class RemapAdjust extends AdjustOperation {
+	private final int inLowSlot, inHighSlot, outLowSlot, outHighSlot;
+
+	public RemapAdjust() {
+		super();
+		inLowSlot = addParameter("InLow", CONTROL_TYPE.DOUBLE, 0);
+		inHighSlot = addParameter("InHigh", CONTROL_TYPE.DOUBLE, 1);
+		outLowSlot = addParameter("OutLow", CONTROL_TYPE.DOUBLE, 0);
+		outHighSlot = addParameter("OutHigh", CONTROL_TYPE.DOUBLE, 1);
+	}
+
+	@Override
+	protected Adjustment prepare(Parameters par) {
+		double inLow = par.get(inLowSlot), inRange = par.get(inHighSlot) - inLow;
+		double outLow = par.get(outLowSlot), outRange = par.get(outHighSlot) - outLow;
+		// An empty input range maps everything to OutLow
+		double scale = inRange == 0 ? 0 : outRange / inRange;
+		float s = (float) scale, o = (float) (outLow - inLow * scale);
+		return (src, si, dst, di, n) -> GrayKernels.affine(src, si, dst, di, n, s, o);
+	}
+
+	@Override
+	public String getDescription() {
+		return "Remap: stretch InLow..InHigh of the left channel onto OutLow..OutHigh";
+	}
+
+	@Override
+	public String getTitle() {
+		return "Remap";
+	}
+}
@@ -0,0 +1,52 @@
+package com.beder.texture.adjust;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * GrayKernels on the Vector API; each kernel finishes the values that do not
+ * fill a whole vector with its scalar twin. Only loaded once VectorSupport
+ * says the API is there.
+ */
+final class VectorGray {
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+	/** The same shape as FLOATS, so conversions keep the lane count. */
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+	private VectorGray() {
+	}
+
+	static void affine(float[] src, int s, float[] dst, int d, int n, float scale, float offset) {
+		int bound = FLOATS.loopBound(n);
+		for (int i = 0; i < bound; i += FLOATS.length()) {
+			FloatVector.fromArray(FLOATS, src, s + i).mul(scale).add(offset).intoArray(dst, d + i);
+		}
+		GrayKernels.affineScalar(src, s + bound, dst, d + bound, n - bound, scale, offset);
+	}
+
+	static void clamp(float[] src, int s, float[] dst, int d, int n, float lo, float hi) {
+		int bound = FLOATS.loopBound(n);
+		for (int i = 0; i < bound; i += FLOATS.length()) {
+			FloatVector.fromArray(FLOATS, src, s + i).max(lo).min(hi).intoArray(dst, d + i);
+		}
+		GrayKernels.clampScalar(src, s + bound, dst, d + bound, n - bound, lo, hi);
+	}
+
+	static void curve(float[] src, int s, float[] dst, int d, int n, float[] table) {
+		int bound = FLOATS.loopBound(n);
+		// Gathers take their indices from an array
+		int[] index = new int[FLOATS.length()];
+		for (int i = 0; i < bound; i += FLOATS.length()) {
+			FloatVector v = FloatVector.fromArray(FLOATS, src, s + i).max(0f).min(1f).mul(GrayKernels.CURVE_SEGMENTS);
+			IntVector k = ((IntVector) v.convertShape(VectorOperators.F2I, INTS, 0)).min(GrayKernels.CURVE_SEGMENTS - 1);
+			FloatVector f = v.sub((FloatVector) k.convertShape(VectorOperators.I2F, FLOATS, 0));
+			k.intoArray(index, 0);
+			FloatVector a = FloatVector.fromArray(FLOATS, table, 0, index, 0);
+			FloatVector b = FloatVector.fromArray(FLOATS, table, 1, index, 0);
+			a.add(b.sub(a).mul(f)).intoArray(dst, d + i);
+		}
+		GrayKernels.curveScalar(src, s + bound, dst, d + bound, n - bound, table);
+	}
+}
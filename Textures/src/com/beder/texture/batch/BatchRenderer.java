@@ -0,0 +1,231 @@
+package com.beder.texture.batch;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import com.beder.texture.ImagePair;
+import com.beder.texture.export.MipChain;
+import com.beder.texture.export.PngWriter;
+import com.beder.texture.scatter.SpriteRepository;
+
+/**
+ * Command line entry point that renders stack descriptions without the GUI.
+ * Each stack is rendered on its own worker thread and written as
+ * NAME_left.png / NAME_right.png, the same naming the GUI's Save button uses.
+ * <pre>
+ * BatchRenderer [-threads N] [-out DIR] [-sprite FILE[:WEIGHT]]... [-mips box|kaiser]
+ *               [-seeds LIST [-inflight N] [-atlas COLUMNS]] STACK...
+ * </pre>
+ * With -mips, each side's mip chain is also written as NAME_left.dds /
+ * NAME_right.dds; see MipChain.
+ * With -seeds, each stack is instead rendered once per seed, such as
+ * "1..64" or "3,8,20..25"; see SeedVariations. -inflight caps how many
+ * variants are held in memory at once, twice the thread count by default.
+ */
+public class BatchRenderer {
+	private final File outDir;
+	private final int threads;
+	private List<Long> seeds;
+	private int inFlight;
+	private int atlasColumns;
+	private MipChain.Filter mips;
+
+	public BatchRenderer(File outDir, int threads) {
+		this.outDir = outDir;
+		this.threads = threads;
+		this.inFlight = 2 * threads;
+	}
+
+	/**
+	 * @param mips the filter to also write mip chains with, or null for none
+	 */
+	public void setMips(MipChain.Filter mips) {
+		this.mips = mips;
+	}
+
+	/**
+	 * Renders each stack once per seed rather than once.
+	 * @param inFlight how many variants of a stack may be held in memory at once
+	 * @param atlasColumns the width of an atlas in variants, or 0 to write one
+	 *        pair of files per seed
+	 */
+	public void setSeeds(List<Long> seeds, int inFlight, int atlasColumns) {
+		this.seeds = seeds;
+		this.inFlight = inFlight;
+		this.atlasColumns = atlasColumns;
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		File outDir = new File(".");
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<File> stacks = new ArrayList<File>();
+		List<Long> seeds = null;
+		int inFlight = 0;
+		int atlasColumns = 0;
+		MipChain.Filter mips = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "-threads":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				case "-out":
+					outDir = new File(args[++i]);
+					break;
+				case "-sprite":
+					loadSprite(args[++i]);
+					break;
+				case "-seeds":
+					seeds = SeedVariations.parseSeeds(args[++i]);
+					break;
+				case "-inflight":
+					inFlight = Integer.parseInt(args[++i]);
+					break;
+				case "-atlas":
+					atlasColumns = Integer.parseInt(args[++i]);
+					break;
+				case "-mips":
+					mips = MipChain.Filter.valueOf(args[++i].toUpperCase());
+					break;
+				default:
+					stacks.add(new File(args[i]));
+					break;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			System.err.println(e.getMessage());
+			usage();
+		}
+		if (stacks.isEmpty()) {
+			usage();
+		}
+
+		outDir.mkdirs();
+		BatchRenderer renderer = new BatchRenderer(outDir, threads);
+		renderer.setMips(mips);
+		if (seeds != null) {
+			renderer.setSeeds(seeds, inFlight > 0 ? inFlight : 2 * threads, atlasColumns);
+		}
+		int failures = seeds != null ? renderer.renderVariants(stacks) : renderer.renderAll(stacks);
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void usage() {
+		System.err.println("Usage: BatchRenderer [-threads N] [-out DIR] [-sprite FILE[:WEIGHT]]... [-mips box|kaiser]");
+		System.err.println("                     [-seeds LIST [-inflight N] [-atlas COLUMNS]] STACK...");
+		System.exit(2);
+	}
+
+	/**
+	 * Adds a sprite given as FILE or FILE:WEIGHT to the shared repository.
+	 */
+	public static void loadSprite(String arg) throws IOException {
+		int weight = 10;
+		String path = arg;
+		int colon = arg.lastIndexOf(':');
+		if (colon > 0 && arg.substring(colon + 1).matches("\\d+")) {
+			weight = Integer.parseInt(arg.substring(colon + 1));
+			path = arg.substring(0, colon);
+		}
+		BufferedImage img = ImageIO.read(new File(path));
+		if (img == null) {
+			throw new IOException("Not an image: " + path);
+		}
+		SpriteRepository.getInstance().addSprite(img, weight);
+	}
+
+	/**
+	 * Renders every stack file concurrently and writes its outputs.
+	 * @return the number of stacks that failed
+	 */
+	public int renderAll(List<File> stacks) {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (File stack : stacks) {
+			futures.add(executor.submit(() -> {
+				render(stack);
+				return null;
+			}));
+		}
+
+		int failures = 0;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				futures.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failures += futures.size() - i;
+				break;
+			} catch (ExecutionException e) {
+				System.err.println(stacks.get(i) + ": " + e.getCause().getMessage());
+				failures++;
+			}
+		}
+		executor.shutdownNow();
+		return failures;
+	}
+
+	/**
+	 * Renders the seed variants of each stack file in turn; the variants of
+	 * one stack are rendered concurrently.
+	 * @return the number of variants and stacks that failed
+	 */
+	public int renderVariants(List<File> stacks) {
+		int failures = 0;
+		for (File stack : stacks) {
+			long start = System.nanoTime();
+			try {
+				int failed = new SeedVariations(read(stack), nameOf(stack), outDir, threads, inFlight, atlasColumns)
+						.render(seeds);
+				failures += failed;
+				System.out.printf("%s: %d variants in %d ms%n", stack.getName(),
+						seeds.size() - failed, (System.nanoTime() - start) / 1_000_000);
+			} catch (IOException | RuntimeException e) {
+				System.err.println(stack + ": " + e.getMessage());
+				failures++;
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Renders one stack file and writes its left/right images.
+	 */
+	public void render(File stack) throws IOException {
+		long start = System.nanoTime();
+		StackDescription desc = read(stack);
+		ImagePair pair = desc.render();
+
+		String name = nameOf(stack);
+		PngWriter.writePair(pair, new File(outDir, name + "_left.png"), new File(outDir, name + "_right.png"));
+		if (mips != null) {
+			MipChain.writeLeft(pair, mips, desc.getPool(), new File(outDir, name + "_left." + MipChain.EXTENSION));
+			MipChain.writeRight(pair, mips, desc.getPool(), new File(outDir, name + "_right." + MipChain.EXTENSION));
+		}
+		System.out.printf("%s: %d layers at %d in %d ms%n", stack.getName(),
+				desc.getLayers().size(), desc.getRes(), (System.nanoTime() - start) / 1_000_000);
+	}
+
+	private static StackDescription read(File stack) throws IOException {
+		try (Reader in = new FileReader(stack)) {
+			return StackDescription.parse(in);
+		}
+	}
+
+	private static String nameOf(File stack) {
+		return stack.getName().replaceFirst("(\\.[^.]+)?$", "");
+	}
+}
@@ -0,0 +1,261 @@
+package com.beder.texture.batch;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import com.beder.texture.ImagePair;
+import com.beder.texture.RenderContext;
+import com.beder.texture.cache.ContentHash;
+import com.beder.texture.cache.RenderCache;
+import com.beder.texture.render.IntRaster;
+import com.beder.texture.scatter.SpriteRepository;
+
+/**
+ * Command line check that rendering stays deterministic. Every generator and
+ * a few multi-layer stacks are rendered with fixed seeds, sequentially, on
+ * the common pool, on a small pool and, where the stack allows it, tiled.
+ * The disk cache is bypassed. All paths must produce the same pixels, and
+ * those must match the hashes in the golden file.
+ * <pre>
+ * DeterminismCheck [-record] [GOLDEN]
+ * </pre>
+ * GOLDEN defaults to determinism.txt. With -record the golden file is
+ * rewritten from the sequential renders, once the paths agree; do that only
+ * for a change that is meant to alter the output.
+ * <p>
+ * The Maven build runs this check in the verify phase, so a change that
+ * alters any output fails the build until the golden file is re-recorded
+ * along with it. It runs twice against the same golden file, once with the
+ * Vector API kernels and once with -Dtextures.vector=false, since the scalar
+ * fallbacks must give the same pixels; run it both ways by hand too.
+ */
+public class DeterminismCheck {
+	private static final int RES = 300;
+
+	/**
+	 * One stack: its text and whether every layer in it can render tiled
+	 * without changing the input of the next. Tiled gray renders keep their
+	 * floats, so even Vegetation, which reads its input at full precision,
+	 * gets the same input tiled.
+	 */
+	private static class Case {
+		final String stack;
+		final boolean tileable;
+
+		Case(String stack, boolean tileable) {
+			this.stack = stack;
+			this.tileable = tileable;
+		}
+	}
+
+	private static final Map<String, Case> CASES = new LinkedHashMap<String, Case>();
+
+	static {
+		CASES.put("perlin", new Case("layer perlin Frequency=4 Iterations=4 Seed=1234", true));
+		CASES.put("simplex", new Case("layer simplex Scale=50 Seed=7", true));
+		CASES.put("cellnoise", new Case("layer cellnoise Frequency=6 Guassian=40 Seed=3", true));
+		CASES.put("voronoi", new Case("layer voronoi Points=25 Seed=11", true));
+		CASES.put("vegetation", new Case("layer perlin Seed=5\nlayer vegetation Seeds=50 Iterations=10 Seed=9", true));
+		CASES.put("scatter", new Case("layer scatter Quantity=40 Size=96 StdDev=20 Seed=21", true));
+		CASES.put("simplex-copy-perlin", new Case("layer simplex Seed=5\nlayer copy\nlayer perlin Seed=2", true));
+		CASES.put("voronoi-copy-scatter", new Case("layer voronoi Points=12 Seed=4\nlayer copy\nlayer scatter Quantity=25 Size=64 Seed=8", true));
+		CASES.put("adjust", new Case("layer perlin Frequency=3 Seed=31\nlayer remap InLow=0.2 InHigh=0.8 OutLow=0.1 OutHigh=0.9"
+				+ "\nlayer contrast Contrast=1.8\nlayer gamma Gamma=2.2\nlayer clamp Low=0.25 High=0.75", true));
+		CASES.put("adjust-invert", new Case("layer simplex Scale=40 Seed=32\nlayer invert\nlayer gamma Gamma=0.45", true));
+		// Every Mix mode; the scatter sprites' transparency makes it a real mask
+		String[] modes = { "lerp", "multiply", "screen", "overlay", "add", "min", "max" };
+		for (int mode = 0; mode < modes.length; mode++) {
+			CASES.put("mix-" + modes[mode], new Case("layer perlin Seed=6\nlayer copy\nlayer scatter Quantity=30 Size=80 Seed=12\nlayer mix Mode="
+					+ mode + " Amount=" + (mode == 0 ? 100 : 70), true));
+		}
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		boolean record = false;
+		File golden = new File("determinism.txt");
+		for (String arg : args) {
+			if (arg.equals("-record")) {
+				record = true;
+			} else if (arg.startsWith("-")) {
+				System.err.println("Usage: DeterminismCheck [-record] [GOLDEN]");
+				System.exit(2);
+			} else {
+				golden = new File(arg);
+			}
+		}
+
+		try {
+			System.exit(new DeterminismCheck().run(golden, record) ? 0 : 1);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * @return true if every path agreed with every other and with the golden file
+	 */
+	public boolean run(File golden, boolean record) throws IOException {
+		SpriteRepository.getInstance().clear();
+		SpriteRepository.getInstance().addSprite(sprite(), 1);
+
+		Map<String, String> expected = record ? new LinkedHashMap<String, String>() : read(golden);
+		Map<String, String> actual = new LinkedHashMap<String, String>();
+		ForkJoinPool small = new ForkJoinPool(3);
+		boolean ok = true;
+		try {
+			for (Map.Entry<String, Case> e : CASES.entrySet()) {
+				String name = e.getKey();
+				Case c = e.getValue();
+				StackDescription desc = StackDescription.parse(new StringReader(c.stack));
+
+				String sequential = hash(desc.render(context(null)));
+				Map<String, String> paths = new LinkedHashMap<String, String>();
+				paths.put("parallel", hash(desc.render(context(ForkJoinPool.commonPool()))));
+				paths.put("parallel-3", hash(desc.render(context(small))));
+				if (c.tileable) {
+					paths.put("tiled", tiled(desc));
+				}
+
+				for (Map.Entry<String, String> p : paths.entrySet()) {
+					if (!p.getValue().equals(sequential)) {
+						System.out.printf("FAIL %s: %s gives %s but sequential gives %s%n", name, p.getKey(), p.getValue(), sequential);
+						ok = false;
+					}
+				}
+				String want = expected.get(name);
+				if (!record && want == null) {
+					System.out.printf("FAIL %s: not in %s%n", name, golden);
+					ok = false;
+				} else if (!record && !want.equals(sequential)) {
+					System.out.printf("FAIL %s: renders %s but %s expects %s%n", name, sequential, golden, want);
+					ok = false;
+				} else {
+					System.out.printf("ok   %s %s%n", name, sequential);
+				}
+				actual.put(name, sequential);
+			}
+		} finally {
+			small.shutdown();
+			SpriteRepository.getInstance().clear();
+		}
+
+		if (record) {
+			if (!ok) {
+				System.out.println("Paths disagree; " + golden + " not written");
+				return false;
+			}
+			write(golden, actual);
+			System.out.println("Recorded " + actual.size() + " cases in " + golden);
+		}
+		return ok;
+	}
+
+	/**
+	 * Renders with every image tiled, by lowering the tiling threshold for the
+	 * duration of the render.
+	 */
+	private static String tiled(StackDescription desc) {
+		String old = System.getProperty("textures.tiled.min");
+		System.setProperty("textures.tiled.min", "1");
+		try {
+			return hash(desc.render(context(ForkJoinPool.commonPool())));
+		} finally {
+			if (old == null) {
+				System.clearProperty("textures.tiled.min");
+			} else {
+				System.setProperty("textures.tiled.min", old);
+			}
+		}
+	}
+
+	private static RenderContext context(ForkJoinPool pool) {
+		return new RenderContext() {
+			@Override
+			public int getRes() {
+				return RES;
+			}
+
+			@Override
+			public ForkJoinPool getPool() {
+				return pool;
+			}
+
+			@Override
+			public RenderCache getCache() {
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * @return the hashes of both sides as ARGB, so a channel and the tiles
+	 *         it would be quantized to hash alike
+	 */
+	private static String hash(ImagePair pair) {
+		return String.format("%016x %016x", hash(pair.getLeft()), hash(pair.getRight()));
+	}
+
+	private static long hash(BufferedImage img) {
+		IntRaster r = IntRaster.read(img);
+		return ContentHash.ofArgb(r.getData(), r.rowOffset(0), r.getStride(), r.getWidth(), r.getHeight());
+	}
+
+	/**
+	 * @return a fixed sprite: a disc with a radial gradient on transparency
+	 */
+	private static BufferedImage sprite() {
+		int size = 64;
+		IntRaster r = IntRaster.create(size, size);
+		double c = (size - 1) / 2.0;
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				double d = Math.hypot(x - c, y - c) / c;
+				if (d <= 1) {
+					int v = (int) (255 * (1 - d));
+					r.set(x, y, 0xFF000000 | (v << 16) | (128 << 8) | (255 - v));
+				}
+			}
+		}
+		return r.getImage();
+	}
+
+	private static Map<String, String> read(File golden) throws IOException {
+		Map<String, String> hashes = new LinkedHashMap<String, String>();
+		try (BufferedReader in = new BufferedReader(new FileReader(golden))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] tokens = line.split("\\s+");
+				if (tokens.length != 3) {
+					throw new IOException(golden + ": expected NAME LEFT RIGHT but found " + line);
+				}
+				hashes.put(tokens[0], tokens[1] + " " + tokens[2]);
+			}
+		}
+		return hashes;
+	}
+
+	private static void write(File golden, Map<String, String> hashes) throws IOException {
+		try (PrintWriter out = new PrintWriter(new FileWriter(golden))) {
+			out.println("# Golden hashes for DeterminismCheck: NAME LEFT RIGHT, ARGB content hashes at " + RES);
+			for (Map.Entry<String, String> e : hashes.entrySet()) {
+				out.println(e.getKey() + " " + e.getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.beder.texture.batch;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.beder.texture.ImagePair;
+import com.beder.texture.export.PngWriter;
+import com.beder.texture.render.IntRaster;
+import com.beder.texture.render.TiledImage;
+
+/**
+ * Renders variants of one stack that differ only in their seeds. Variants
+ * render on a fixed pool, and each finished one is handed to a second pool
+ * that encodes and writes it while the next ones render. At most inFlight
+ * variants are rendering or waiting to be written at any time, which caps
+ * memory at about inFlight image pairs.
+ * <p>
+ * Variants are written as NAME_sSEED_left.png / _right.png, or, with an
+ * atlas, pasted into a grid of the given number of columns, in seed order,
+ * and written as NAME_atlas_left.png / _right.png. The atlas is kept in
+ * tiles off the heap until it is written.
+ */
+public class SeedVariations {
+	private final StackDescription stack;
+	private final String name;
+	private final File outDir;
+	private final int threads;
+	private final int inFlight;
+	private final int atlasColumns;
+
+	/**
+	 * @param inFlight how many variants may be held in memory at once
+	 * @param atlasColumns the width of the atlas in variants, or 0 for separate files
+	 */
+	public SeedVariations(StackDescription stack, String name, File outDir, int threads, int inFlight, int atlasColumns) {
+		this.stack = stack;
+		this.name = name;
+		this.outDir = outDir;
+		this.threads = threads;
+		this.inFlight = Math.max(1, inFlight);
+		this.atlasColumns = atlasColumns;
+	}
+
+	/**
+	 * Parses a comma-separated list of seeds and inclusive ranges, such as
+	 * "1..64" or "7,12,100..103".
+	 * @throws NumberFormatException if a seed is not a number
+	 */
+	public static List<Long> parseSeeds(String spec) {
+		List<Long> seeds = new ArrayList<Long>();
+		for (String part : spec.split(",")) {
+			int dots = part.indexOf("..");
+			if (dots < 0) {
+				seeds.add(Long.parseLong(part.trim()));
+			} else {
+				long from = Long.parseLong(part.substring(0, dots).trim());
+				long to = Long.parseLong(part.substring(dots + 2).trim());
+				for (long s = from; s <= to; s++) {
+					seeds.add(s);
+				}
+			}
+		}
+		return seeds;
+	}
+
+	/**
+	 * Renders and writes one variant per seed.
+	 * @return the number of variants that failed
+	 * @throws IOException if the atlas cannot be written
+	 */
+	public int render(List<Long> seeds) throws IOException {
+		int res = stack.getRes();
+		TiledImage atlasLeft = null, atlasRight = null;
+		if (atlasColumns > 0) {
+			int rows = (seeds.size() + atlasColumns - 1) / atlasColumns;
+			atlasLeft = new TiledImage(atlasColumns * res, rows * res);
+			atlasRight = new TiledImage(atlasColumns * res, rows * res);
+		}
+
+		ExecutorService renderers = Executors.newFixedThreadPool(threads);
+		ExecutorService writers = Executors.newFixedThreadPool(threads);
+		Semaphore slots = new Semaphore(inFlight);
+		AtomicInteger failures = new AtomicInteger();
+		List<CompletableFuture<?>> pending = new ArrayList<CompletableFuture<?>>();
+		try {
+			for (int i = 0; i < seeds.size(); i++) {
+				int index = i;
+				long seed = seeds.get(i);
+				slots.acquireUninterruptibly();
+				TiledImage left = atlasLeft, right = atlasRight;
+				pending.add(CompletableFuture.supplyAsync(() -> stack.withSeed(seed).render(), renderers)
+						.thenAcceptAsync(pair -> {
+							try {
+								if (left != null) {
+									paste(pair, left, right, index, res);
+								} else {
+									PngWriter.writePair(pair, new File(outDir, name + "_s" + seed + "_left.png"),
+											new File(outDir, name + "_s" + seed + "_right.png"));
+								}
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							} finally {
+								pair.release();
+							}
+						}, writers)
+						.handle((v, e) -> {
+							slots.release();
+							if (e != null) {
+								Throwable cause = e.getCause() != null ? e.getCause() : e;
+								System.err.println(name + " seed " + seed + ": " + cause.getMessage());
+								failures.incrementAndGet();
+							}
+							return null;
+						}));
+			}
+			CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+		} finally {
+			renderers.shutdown();
+			writers.shutdown();
+		}
+
+		if (atlasLeft != null) {
+			atlasLeft.flush();
+			atlasRight.flush();
+			PngWriter.write(atlasLeft, new File(outDir, name + "_atlas_left.png"));
+			PngWriter.write(atlasRight, new File(outDir, name + "_atlas_right.png"));
+		}
+		return failures.get();
+	}
+
+	/**
+	 * Copies a variant into its cell of the atlas. Pastes go through the
+	 * atlases' resident tiles, so only one writer pastes at a time. Variants
+	 * held in tiles are copied a tile row at a time.
+	 */
+	private void paste(ImagePair pair, TiledImage left, TiledImage right, int index, int res) {
+		int x0 = (index % atlasColumns) * res, y0 = (index / atlasColumns) * res;
+		TiledImage l = pair.getLeftTiled(), r = pair.getRightTiled();
+		if (l == null && r == null) {
+			IntRaster lr = IntRaster.read(pair.getLeft());
+			IntRaster rr = IntRaster.read(pair.getRight());
+			synchronized (this) {
+				left.paste(lr, x0, y0);
+				right.paste(rr, x0, y0);
+			}
+			return;
+		}
+		for (int y = 0; y < res; y += TiledImage.TILE_SIZE) {
+			int rows = Math.min(TiledImage.TILE_SIZE, res - y);
+			IntRaster lb = band(pair, true, y, rows);
+			IntRaster rb = band(pair, false, y, rows);
+			synchronized (this) {
+				left.paste(lb, x0, y0 + y);
+				right.paste(rb, x0, y0 + y);
+			}
+		}
+	}
+
+	/**
+	 * @return rows [y, y + rows) of a side, from its tiles if it has them
+	 */
+	private static IntRaster band(ImagePair pair, boolean left, int y, int rows) {
+		TiledImage tiled = left ? pair.getLeftTiled() : pair.getRightTiled();
+		if (tiled == null) {
+			BufferedImage heap = left ? pair.getLeft() : pair.getRight();
+			return IntRaster.read(heap.getSubimage(0, y, heap.getWidth(), rows));
+		}
+		IntRaster band = IntRaster.create(tiled.getWidth(), rows);
+		tiled.readRows(y, rows, band.getData());
+		return band;
+	}
+}
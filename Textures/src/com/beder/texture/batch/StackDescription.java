@@ -0,0 +1,180 @@
+package com.beder.texture.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.beder.texture.ImagePair;
+import com.beder.texture.Operation;
+import com.beder.texture.OperationFactory;
+import com.beder.texture.ParameterSchema;
+import com.beder.texture.Parameters;
+import com.beder.texture.RenderContext;
+
+/**
+ * A layer stack described as plain text, one directive per line:
+ * <pre>
+ * # comment
+ * res 1024
+ * layer perlin Frequency=4 Iterations=4 Seed=1234
+ * layer copy
+ * </pre>
+ * Parameters that are not listed fall back to the operation's defaults,
+ * except seeds: operations pick a random one, so here they default to 0 and a
+ * description renders the same every time.
+ */
+public class StackDescription implements RenderContext {
+	private int res;
+	private final List<LayerSpec> layers;
+
+	/**
+	 * One "layer" line: the operation type and its parameters.
+	 */
+	public static class LayerSpec {
+		private final Operation op;
+		private final Parameters param;
+
+		public LayerSpec(Operation op, Parameters param) {
+			this.op = op;
+			this.param = param;
+		}
+
+		public Operation getOperation() {
+			return op;
+		}
+
+		public Parameters getParam() {
+			return param;
+		}
+	}
+
+	public StackDescription(int res) {
+		this.res = res;
+		this.layers = new ArrayList<LayerSpec>();
+	}
+
+	/**
+	 * Parses a stack description.
+	 * @throws IOException if the text cannot be read or is malformed
+	 */
+	public static StackDescription parse(Reader in) throws IOException {
+		StackDescription desc = new StackDescription(1024);
+		BufferedReader reader = new BufferedReader(in);
+		String line;
+		int lineNo = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNo++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] tokens = line.split("\\s+");
+			try {
+				switch (tokens[0].toLowerCase()) {
+				case "res":
+					desc.res = Integer.parseInt(tokens[1]);
+					break;
+				case "layer":
+					Operation op = OperationFactory.create(tokens[1]);
+					Parameters param = op.getDefaultParameters();
+					ParameterSchema schema = param.getSchema();
+					for (int slot = 0; slot < schema.size(); slot++) {
+						if (schema.isSeed(slot)) {
+							param.set(slot, 0);
+						}
+					}
+					for (int i = 2; i < tokens.length; i++) {
+						int eq = tokens[i].indexOf('=');
+						if (eq < 0) {
+							throw new IllegalArgumentException("Expected name=value but found " + tokens[i]);
+						}
+						param.put(tokens[i].substring(0, eq), tokens[i].substring(eq + 1));
+					}
+					desc.addLayer(op, param);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown directive " + tokens[0]);
+				}
+			} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+				throw new IOException("Line " + lineNo + ": " + e.getMessage(), e);
+			}
+		}
+		return desc;
+	}
+
+	/**
+	 * @return the "layer" line that parses back to the given operation and
+	 *         parameters; whole numbers are written without a fraction
+	 */
+	public static String formatLayer(Operation op, Parameters param) {
+		StringBuilder sb = new StringBuilder("layer ").append(OperationFactory.typeOf(op));
+		ParameterSchema schema = param.getSchema();
+		for (int slot = 0; slot < schema.size(); slot++) {
+			double v = param.get(slot);
+			sb.append(' ').append(schema.getName(slot)).append('=');
+			if (v == Math.rint(v) && Math.abs(v) < 1e15) {
+				sb.append((long) v);
+			} else {
+				sb.append(v);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return a copy of this stack with new seeds: the first seeded layer gets
+	 *         seed, the next seed + 1, and so on, so layers of the same type
+	 *         still differ from each other
+	 */
+	public StackDescription withSeed(long seed) {
+		StackDescription desc = new StackDescription(res);
+		long next = seed;
+		for (LayerSpec spec : layers) {
+			Parameters param = spec.getParam().copy();
+			ParameterSchema schema = param.getSchema();
+			for (int slot = 0; slot < schema.size(); slot++) {
+				if (schema.isSeed(slot)) {
+					param.set(slot, next++);
+				}
+			}
+			desc.addLayer(spec.getOperation(), param);
+		}
+		return desc;
+	}
+
+	public void addLayer(Operation op, Parameters param) {
+		layers.add(new LayerSpec(op, param));
+	}
+
+	public List<LayerSpec> getLayers() {
+		return Collections.unmodifiableList(layers);
+	}
+
+	@Override
+	public int getRes() {
+		return res;
+	}
+
+	/**
+	 * Runs every layer in order on a fresh black image pair. Operations keep
+	 * no state between calls, so one description can render concurrently.
+	 */
+	public ImagePair render() {
+		return render(this);
+	}
+
+	/**
+	 * Renders with other settings, such as another pool or no cache; the
+	 * context's resolution is used rather than this description's.
+	 */
+	public ImagePair render(RenderContext ctx) {
+		ImagePair pair = new ImagePair(ctx.getRes());
+		for (LayerSpec spec : layers) {
+			pair = spec.getOperation().executeOperation(ctx, pair, spec.getParam());
+		}
+		return pair;
+	}
+}
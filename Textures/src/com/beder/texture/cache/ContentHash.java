@@ -0,0 +1,57 @@
+package com.beder.texture.cache;
+
+/**
+ * A fast 64-bit hash of raster contents, used to key renders by their input.
+ * It is not cryptographic; the cache key built from it is.
+ */
+public final class ContentHash {
+	private static final long PRIME1 = 0x9E3779B97F4A7C15L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long ARGB = 0x41524742L;
+	private static final long FLOAT = 0x464C5420L;
+
+	private ContentHash() {
+	}
+
+	/**
+	 * Hashes a block of packed ARGB pixels laid out with the given row stride.
+	 */
+	public static long ofArgb(int[] data, int offset, int stride, int width, int height) {
+		long h = start(ARGB, width, height);
+		for (int y = 0; y < height; y++) {
+			int o = offset + y * stride;
+			for (int x = 0; x < width; x++) {
+				h = step(h, data[o + x]);
+			}
+		}
+		return finish(h);
+	}
+
+	/**
+	 * Hashes a row-major float raster by the bits of each value.
+	 */
+	public static long ofFloats(float[] data, int width, int height) {
+		long h = start(FLOAT, width, height);
+		for (int i = 0; i < width * height; i++) {
+			h = step(h, Float.floatToIntBits(data[i]));
+		}
+		return finish(h);
+	}
+
+	private static long start(long kind, int width, int height) {
+		return (kind * PRIME1) ^ ((long) width << 32 | height);
+	}
+
+	private static long step(long h, int v) {
+		return Long.rotateLeft(h ^ (v * PRIME1), 31) * PRIME2;
+	}
+
+	private static long finish(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,284 @@
+package com.beder.texture.cache;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.beder.texture.FloatChannel;
+import com.beder.texture.ParameterSchema;
+import com.beder.texture.Parameters;
+import com.beder.texture.render.IntRaster;
+
+/**
+ * A content-addressed cache of rendered rasters on disk. Each entry is one
+ * file named by the SHA-256 of everything that determines the render, holding
+ * a small header and the raw pixels, which are memory-mapped on the way in
+ * and out.
+ * <p>
+ * The total size is capped; the least recently used entries are evicted
+ * first. Recency survives restarts through the files' modification times.
+ * Any I/O problem is treated as a miss, so a broken cache only costs time.
+ */
+public final class RenderCache {
+	private static final String SUFFIX = ".raw";
+	private static final int MAGIC = 0x54584331; // "TXC1"
+	private static final int KIND_ARGB = 0, KIND_FLOAT = 1;
+	private static final int HEADER = 16;
+	/** Bumped whenever a generator's output changes, so older entries are never reused. */
+	private static final int GENERATION = 3;
+
+	private static RenderCache instance;
+	private static boolean initialized;
+
+	private final Path dir;
+	private final long maxBytes;
+	private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long totalBytes;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Opens or creates a cache in the given directory, indexing any entries
+	 * already there.
+	 */
+	public RenderCache(File dir, long maxBytes) throws IOException {
+		this.dir = dir.toPath();
+		this.maxBytes = maxBytes;
+		Files.createDirectories(this.dir);
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list " + dir);
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File f : files) {
+			String name = f.getName();
+			if (name.endsWith(SUFFIX)) {
+				index.put(name.substring(0, name.length() - SUFFIX.length()), f.length());
+				totalBytes += f.length();
+			} else if (name.endsWith(".tmp")) {
+				f.delete();
+			}
+		}
+		synchronized (this) {
+			evict();
+		}
+	}
+
+	/**
+	 * Returns the shared cache, or null if it is switched off or could not be
+	 * opened. Configured by the system properties textures.cache ("off" to
+	 * disable), textures.cache.dir (default ~/.textures/cache) and
+	 * textures.cache.mb (default 2048).
+	 */
+	public static synchronized RenderCache getDefault() {
+		if (!initialized) {
+			initialized = true;
+			if (!"off".equalsIgnoreCase(System.getProperty("textures.cache"))) {
+				File dir = new File(System.getProperty("textures.cache.dir",
+						System.getProperty("user.home") + File.separator + ".textures" + File.separator + "cache"));
+				long mb = Long.getLong("textures.cache.mb", 2048);
+				try {
+					instance = new RenderCache(dir, mb << 20);
+				} catch (IOException e) {
+					System.err.println("Render cache disabled: " + e.getMessage());
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Builds the key for one render: the operation class, the output
+	 * resolution, every parameter (which includes the seed), and a hash of
+	 * whatever input the operation reads, or 0 if it reads none.
+	 */
+	public String key(Class<?> op, int res, Parameters par, long inputHash) {
+		StringBuilder sb = new StringBuilder().append(GENERATION).append('\n').append(op.getName());
+		sb.append('\n').append(res);
+		ParameterSchema schema = par.getSchema();
+		for (int slot = 0; slot < schema.size(); slot++) {
+			sb.append('\n').append(schema.getName(slot)).append('=')
+					.append(Long.toHexString(Double.doubleToLongBits(par.get(slot))));
+		}
+		sb.append('\n').append(Long.toHexString(inputHash));
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the cached ARGB image for the key, or null on a miss
+	 */
+	public BufferedImage getImage(String key) {
+		ByteBuffer buf = open(key, KIND_ARGB);
+		if (buf == null) {
+			return null;
+		}
+		IntRaster raster = IntRaster.create(buf.getInt(8), buf.getInt(12));
+		buf.position(HEADER);
+		buf.asIntBuffer().get(raster.getData());
+		return raster.getImage();
+	}
+
+	/**
+	 * @return the cached channel for the key, or null on a miss
+	 */
+	public FloatChannel getChannel(String key) {
+		ByteBuffer buf = open(key, KIND_FLOAT);
+		if (buf == null) {
+			return null;
+		}
+		FloatChannel channel = new FloatChannel(buf.getInt(8), buf.getInt(12));
+		buf.position(HEADER);
+		buf.asFloatBuffer().get(channel.getData());
+		return channel;
+	}
+
+	public void putImage(String key, BufferedImage img) {
+		IntRaster src = IntRaster.read(img);
+		int w = src.getWidth(), h = src.getHeight();
+		write(key, KIND_ARGB, w, h, buf -> {
+			IntBuffer ints = buf.asIntBuffer();
+			for (int y = 0; y < h; y++) {
+				ints.put(src.getData(), src.rowOffset(y), w);
+			}
+		});
+	}
+
+	public void putChannel(String key, FloatChannel channel) {
+		write(key, KIND_FLOAT, channel.getWidth(), channel.getHeight(),
+				buf -> buf.asFloatBuffer().put(channel.getData()));
+	}
+
+	/**
+	 * @return how many lookups found a usable entry since the cache was opened
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return how many lookups found nothing, or a broken entry
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Maps an entry and checks its header, counting the hit or miss.
+	 * @return the little-endian mapping positioned at 0, or null on a miss
+	 */
+	private ByteBuffer open(String key, int kind) {
+		ByteBuffer buf = map(key, kind);
+		(buf != null ? hits : misses).incrementAndGet();
+		return buf;
+	}
+
+	private ByteBuffer map(String key, int kind) {
+		synchronized (this) {
+			if (index.get(key) == null) {
+				return null;
+			}
+		}
+		Path file = entry(key);
+		try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if (buf.limit() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != kind
+					|| buf.limit() != HEADER + 4L * buf.getInt(8) * buf.getInt(12)) {
+				return null;
+			}
+			file.toFile().setLastModified(System.currentTimeMillis());
+			return buf;
+		} catch (IOException e) {
+			synchronized (this) {
+				Long size = index.remove(key);
+				if (size != null) {
+					totalBytes -= size;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Writes an entry through a mapping of a temporary file, then moves it
+	 * into place so readers never see it half written.
+	 * @param body fills the pixels, given a little-endian buffer after the header
+	 */
+	private void write(String key, int kind, int w, int h, Consumer<ByteBuffer> body) {
+		long size = HEADER + 4L * w * h;
+		if (size > maxBytes) {
+			return;
+		}
+		Path tmp = null;
+		try {
+			tmp = Files.createTempFile(dir, key, ".tmp");
+			try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				buf.order(ByteOrder.LITTLE_ENDIAN);
+				buf.putInt(MAGIC).putInt(kind).putInt(w).putInt(h);
+				body.accept(buf.slice().order(ByteOrder.LITTLE_ENDIAN));
+			}
+			Files.move(tmp, entry(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Render cache write failed: " + e.getMessage());
+			if (tmp != null) {
+				tmp.toFile().delete();
+			}
+			return;
+		}
+		synchronized (this) {
+			Long old = index.put(key, size);
+			totalBytes += size - (old == null ? 0 : old);
+			evict();
+		}
+	}
+
+	private Path entry(String key) {
+		return dir.resolve(key + SUFFIX);
+	}
+
+	/**
+	 * Deletes the least recently used entries until the cache fits its cap.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> e = it.next();
+			try {
+				Files.deleteIfExists(entry(e.getKey()));
+			} catch (IOException ex) {
+				// Still mapped somewhere; it goes from the index regardless
+			}
+			totalBytes -= e.getValue();
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.beder.texture.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import com.beder.texture.FloatChannel;
+import com.beder.texture.ImagePair;
+import com.beder.texture.render.FloatRows;
+import com.beder.texture.render.TiledChannel;
+import com.beder.texture.render.TiledImage;
+
+/**
+ * Writes a channel as a heightmap for terrain tools, without quantizing it
+ * to 8 bits: as a 16-bit grayscale PNG, or as headerless little-endian
+ * samples, row by row, in a .r16 (unsigned 16-bit) or .r32 (32-bit float)
+ * file. Raw files are written through a mapping of the file, a band of rows
+ * at a time, so no stream or encoder sits in between.
+ * <p>
+ * Channels are read a few rows at a time, so a tiled channel is streamed to
+ * the file without ever being held on the heap whole.
+ */
+public final class HeightmapWriter {
+	public static final String PNG16 = "png", UINT16 = "r16", FLOAT32 = "r32";
+	/** The most bytes mapped at once; a mapping cannot exceed 2GB. */
+	private static final long MAP_BYTES = 1 << 28;
+	/** How many rows are read from the channel at once. */
+	private static final int READ_ROWS = TiledChannel.TILE_SIZE;
+
+	private HeightmapWriter() {
+	}
+
+	/**
+	 * Writes the left side in the format the file's extension names. A side
+	 * rendered to a TiledChannel keeps its full precision; one only held as
+	 * ARGB tiles is decoded as FloatChannel.fromImage() would, a band at a time.
+	 * @throws IOException if the extension is not png, r16 or r32, or the file cannot be written
+	 */
+	public static void writeLeft(ImagePair pair, File file) throws IOException {
+		TiledChannel channel = pair.getLeftTiledChannel();
+		if (channel != null) {
+			write(channel, file);
+			return;
+		}
+		TiledImage tiled = pair.getLeftTiled();
+		write(tiled != null ? intensity(tiled) : pair.getLeftChannel(), file);
+	}
+
+	/**
+	 * Writes in the format the file's extension names.
+	 * @throws IOException if the extension is not png, r16 or r32, or the file cannot be written
+	 */
+	public static void write(FloatRows channel, File file) throws IOException {
+		String name = file.getName();
+		String ext = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+		switch (ext) {
+		case PNG16:
+			PngWriter.writeGray16(channel, file);
+			break;
+		case UINT16:
+			writeUInt16(channel, file);
+			break;
+		case FLOAT32:
+			writeFloat32(channel, file);
+			break;
+		default:
+			throw new IOException("Unknown heightmap format: " + name);
+		}
+	}
+
+	/**
+	 * Writes the values as unsigned 16-bit samples, clamped to [0,1].
+	 */
+	public static void writeUInt16(FloatRows channel, File file) throws IOException {
+		short[] samples = new short[channel.getWidth() * READ_ROWS];
+		write(channel, file, 2, (buf, values, n) -> {
+			for (int i = 0; i < n; i++) {
+				samples[i] = (short) FloatChannel.toUInt16(values[i]);
+			}
+			buf.asShortBuffer().put(samples, 0, n);
+		});
+	}
+
+	/**
+	 * Writes the values as they are, unclamped.
+	 */
+	public static void writeFloat32(FloatRows channel, File file) throws IOException {
+		write(channel, file, 4, (buf, values, n) -> buf.asFloatBuffer().put(values, 0, n));
+	}
+
+	/**
+	 * @return the tiles decoded to their mean RGB intensity as they are read
+	 */
+	private static FloatRows intensity(TiledImage img) {
+		return new FloatRows() {
+			@Override
+			public int getWidth() {
+				return img.getWidth();
+			}
+
+			@Override
+			public int getHeight() {
+				return img.getHeight();
+			}
+
+			@Override
+			public void readRows(int y0, int rows, float[] dst) {
+				int n = Math.min(rows, img.getHeight() - y0) * img.getWidth();
+				int[] argb = new int[n];
+				img.readRows(y0, rows, argb);
+				for (int i = 0; i < n; i++) {
+					dst[i] = FloatChannel.intensity(argb[i]);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Encodes the first n values, whole rows, at the position of a
+	 * little-endian mapping, leaving its position alone.
+	 */
+	private interface SampleWriter {
+		void write(MappedByteBuffer buf, float[] values, int n);
+	}
+
+	private static void write(FloatRows channel, File file, int bytesPerSample, SampleWriter samples) throws IOException {
+		int w = channel.getWidth(), h = channel.getHeight();
+		long rowBytes = (long) w * bytesPerSample;
+		int band = (int) Math.max(1, MAP_BYTES / rowBytes);
+		float[] values = new float[w * READ_ROWS];
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (int y0 = 0; y0 < h; y0 += band) {
+				int n = Math.min(band, h - y0);
+				MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_WRITE, y0 * rowBytes, n * rowBytes);
+				buf.order(ByteOrder.LITTLE_ENDIAN);
+				for (int y = y0; y < y0 + n; y += READ_ROWS) {
+					int rows = Math.min(READ_ROWS, y0 + n - y);
+					channel.readRows(y, rows, values);
+					samples.write(buf, values, rows * w);
+					buf.position(buf.position() + rows * w * bytesPerSample);
+				}
+			}
+		}
+	}
+}
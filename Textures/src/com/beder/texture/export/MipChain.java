@@ -0,0 +1,319 @@
+package com.beder.texture.export;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import com.beder.texture.ImagePair;
+import com.beder.texture.render.IntRaster;
+import com.beder.texture.render.IntRows;
+import com.beder.texture.render.TileRenderer;
+import com.beder.texture.render.TiledImage;
+
+/**
+ * Builds the mip chain of a tiling texture, halving each level down to 1x1.
+ * Every level is filtered from the one before it, so the chain costs about a
+ * third more than its top level. Filters wrap around the edges, since the
+ * textures tile, and work on premultiplied alpha so transparent pixels do not
+ * bleed their color into their neighbors.
+ * <p>
+ * A level is computed in bands of rows on the pool. Each band filters the
+ * source rows it needs horizontally, then those vertically. Levels are read
+ * a row at a time, and those large enough that TiledImage.shouldTile() are
+ * made in tiles, so the chain of a tiled image is never held on the heap.
+ */
+public final class MipChain {
+	public static final String EXTENSION = "dds";
+	private static final int BAND = 16;
+
+	/**
+	 * The downsampling filter, with its radius in output pixels.
+	 */
+	public enum Filter {
+		/** The mean of the source pixels under each output pixel. */
+		BOX(0.5),
+		/** A Kaiser-windowed sinc, sharper than a box without ringing much. */
+		KAISER(3);
+
+		private static final double ALPHA = 4;
+		final double radius;
+
+		Filter(double radius) {
+			this.radius = radius;
+		}
+
+		double weight(double d) {
+			d = Math.abs(d);
+			if (this == BOX) {
+				return d <= 0.5 ? 1 : 0;
+			}
+			if (d >= radius) {
+				return 0;
+			}
+			double sinc = d < 1e-9 ? 1 : Math.sin(Math.PI * d) / (Math.PI * d);
+			double t = d / radius;
+			return sinc * bessel0(ALPHA * Math.sqrt(1 - t * t)) / bessel0(ALPHA);
+		}
+
+		private static double bessel0(double x) {
+			double sum = 1, term = 1, q = x * x / 4;
+			for (int k = 1; term > sum * 1e-12; k++) {
+				term *= q / (k * k);
+				sum += term;
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * Receives the levels in order, level 0 being the image itself.
+	 */
+	public interface LevelSink {
+		void accept(int level, IntRows image) throws IOException;
+	}
+
+	private MipChain() {
+	}
+
+	/**
+	 * @return the number of levels down to 1x1, the top included
+	 */
+	public static int levelCount(int width, int height) {
+		int n = 1;
+		while (width > 1 || height > 1) {
+			width = Math.max(1, width / 2);
+			height = Math.max(1, height / 2);
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Passes every level to the sink as soon as it is made; only the level
+	 * being read and the one being made are held at once.
+	 * @param pool the pool to filter bands on, or null for the calling thread
+	 */
+	public static void build(IntRows top, Filter filter, ForkJoinPool pool, LevelSink sink) throws IOException {
+		IntRows level = top;
+		sink.accept(0, level);
+		for (int i = 1; level.getWidth() > 1 || level.getHeight() > 1; i++) {
+			level = downsample(level, filter, pool);
+			sink.accept(i, level);
+		}
+	}
+
+	/**
+	 * @return the next level: half the size, rounded down, but at least 1x1;
+	 *         a TiledImage if it is large enough to tile, else an IntRaster
+	 */
+	public static IntRows downsample(IntRows src, Filter filter, ForkJoinPool pool) {
+		int sw = src.getWidth(), sh = src.getHeight();
+		int dw = Math.max(1, sw / 2), dh = Math.max(1, sh / 2);
+		Taps tx = new Taps(filter, sw, dw), ty = new Taps(filter, sh, dh);
+		TiledImage tiled = TiledImage.shouldTile(Math.max(dw, dh)) ? new TiledImage(dw, dh) : null;
+		IntRaster heap = tiled == null ? IntRaster.create(dw, dh) : null;
+		// Tiles are written whole, so tiled levels go a tile row per band
+		int bandRows = tiled == null ? BAND : TiledImage.TILE_SIZE;
+		TileRenderer.forEachBand(pool, dh, bandRows, (y0, y1) -> {
+			// Source rows filtered horizontally, premultiplied RGBA, made on first use
+			float[][] rows = new float[sh][];
+			int[] line = new int[sw];
+			float[] acc = new float[dw * 4];
+			// A fresh raster's rows are back to back, so the band is written in place
+			int[] out = tiled == null ? heap.getData() : new int[dw * (y1 - y0)];
+			int base = tiled == null ? y0 * dw : 0;
+			for (int y = y0; y < y1; y++) {
+				Arrays.fill(acc, 0);
+				for (int k = 0; k < ty.count; k++) {
+					int sy = Math.floorMod(ty.start[y] + k, sh);
+					float w = ty.weights[y * ty.count + k];
+					if (w == 0) {
+						continue;
+					}
+					if (rows[sy] == null) {
+						src.readRows(sy, 1, line);
+						rows[sy] = filterRow(line, tx, dw);
+					}
+					float[] row = rows[sy];
+					for (int i = 0; i < acc.length; i++) {
+						acc[i] += w * row[i];
+					}
+				}
+				int o = base + (y - y0) * dw;
+				for (int x = 0; x < dw; x++) {
+					out[o + x] = unpremultiply(acc, x * 4);
+				}
+			}
+			if (tiled != null) {
+				tiled.writeRows(y0, y1 - y0, out);
+			}
+		});
+		return tiled != null ? tiled : heap;
+	}
+
+	/**
+	 * Writes the left side's chain, streaming it from its tiles if it has them.
+	 * @param pool the pool to filter bands on, or null for the calling thread
+	 */
+	public static void writeLeft(ImagePair pair, Filter filter, ForkJoinPool pool, File file) throws IOException {
+		TiledImage tiled = pair.getLeftTiled();
+		writeDds(tiled != null ? tiled : IntRaster.read(pair.getLeft()), filter, pool, file);
+	}
+
+	/**
+	 * Writes the right side's chain, streaming it from its tiles if it has them.
+	 * @param pool the pool to filter bands on, or null for the calling thread
+	 */
+	public static void writeRight(ImagePair pair, Filter filter, ForkJoinPool pool, File file) throws IOException {
+		TiledImage tiled = pair.getRightTiled();
+		writeDds(tiled != null ? tiled : IntRaster.read(pair.getRight()), filter, pool, file);
+	}
+
+	/**
+	 * Writes the whole chain of an image as an uncompressed 32-bit DDS, the
+	 * top level first, building each level as the one before is written.
+	 * @param pool the pool to filter bands on, or null for the calling thread
+	 */
+	public static void writeDds(BufferedImage img, Filter filter, ForkJoinPool pool, File file) throws IOException {
+		writeDds(IntRaster.read(img), filter, pool, file);
+	}
+
+	/**
+	 * Like writeDds(BufferedImage, ...), reading each level a band of rows
+	 * at a time.
+	 */
+	public static void writeDds(IntRows top, Filter filter, ForkJoinPool pool, File file) throws IOException {
+		int w = top.getWidth(), h = top.getHeight();
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(fc, ddsHeader(w, h, levelCount(w, h)));
+			build(top, filter, pool, (level, image) -> {
+				int lw = image.getWidth(), lh = image.getHeight();
+				int band = Math.min(lh, 64);
+				int[] rows = new int[lw * band];
+				ByteBuffer buf = ByteBuffer.allocate(lw * 4 * band).order(ByteOrder.LITTLE_ENDIAN);
+				for (int y0 = 0; y0 < lh; y0 += band) {
+					int n = Math.min(band, lh - y0);
+					image.readRows(y0, n, rows);
+					buf.clear();
+					buf.asIntBuffer().put(rows, 0, lw * n);
+					buf.limit(lw * 4 * n);
+					writeFully(fc, buf);
+				}
+			});
+		}
+	}
+
+	/**
+	 * The source pixels and their weights for each output pixel along one
+	 * axis: output i reads count pixels from start[i], wrapping around.
+	 */
+	private static final class Taps {
+		final int count;
+		final int[] start;
+		final float[] weights;
+
+		Taps(Filter filter, int srcSize, int dstSize) {
+			double scale = (double) srcSize / dstSize;
+			double reach = filter.radius * scale;
+			count = (int) Math.ceil(2 * reach) + 1;
+			start = new int[dstSize];
+			weights = new float[dstSize * count];
+			for (int i = 0; i < dstSize; i++) {
+				double center = (i + 0.5) * scale - 0.5;
+				int first = (int) Math.ceil(center - reach);
+				start[i] = first;
+				double sum = 0;
+				for (int k = 0; k < count; k++) {
+					double w = filter.weight((first + k - center) / scale);
+					weights[i * count + k] = (float) w;
+					sum += w;
+				}
+				for (int k = 0; k < count; k++) {
+					weights[i * count + k] = (float) (weights[i * count + k] / sum);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a source row filtered horizontally, as premultiplied RGBA floats
+	 */
+	private static float[] filterRow(int[] data, Taps tx, int dw) {
+		int sw = data.length;
+		float[] row = new float[dw * 4];
+		for (int x = 0; x < dw; x++) {
+			float r = 0, g = 0, b = 0, a = 0;
+			for (int k = 0; k < tx.count; k++) {
+				float w = tx.weights[x * tx.count + k];
+				if (w == 0) {
+					continue;
+				}
+				int argb = data[Math.floorMod(tx.start[x] + k, sw)];
+				float pa = (argb >>> 24) * w;
+				a += pa;
+				r += ((argb >> 16) & 0xFF) * pa;
+				g += ((argb >> 8) & 0xFF) * pa;
+				b += (argb & 0xFF) * pa;
+			}
+			row[x * 4] = r;
+			row[x * 4 + 1] = g;
+			row[x * 4 + 2] = b;
+			row[x * 4 + 3] = a;
+		}
+		return row;
+	}
+
+	private static int unpremultiply(float[] px, int i) {
+		float a = px[i + 3];
+		if (a <= 0) {
+			return 0;
+		}
+		int r = clamp(px[i] / a), g = clamp(px[i + 1] / a), b = clamp(px[i + 2] / a);
+		return (clamp(a) << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	private static int clamp(float v) {
+		return Math.max(0, Math.min(255, Math.round(v)));
+	}
+
+	/**
+	 * @return the 128-byte header of a DDS with 32-bit BGRA pixels and a full mip chain
+	 */
+	private static ByteBuffer ddsHeader(int width, int height, int levels) {
+		ByteBuffer h = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+		h.putInt(0x20534444); // "DDS "
+		h.putInt(124);
+		h.putInt(0x1 | 0x2 | 0x4 | 0x8 | 0x1000 | 0x20000); // caps, height, width, pitch, pixel format, mip count
+		h.putInt(height);
+		h.putInt(width);
+		h.putInt(width * 4);
+		h.putInt(0); // depth
+		h.putInt(levels);
+		h.position(h.position() + 11 * 4);
+		h.putInt(32); // pixel format size
+		h.putInt(0x1 | 0x40); // alpha, RGB
+		h.putInt(0); // no FourCC
+		h.putInt(32);
+		h.putInt(0x00FF0000);
+		h.putInt(0x0000FF00);
+		h.putInt(0x000000FF);
+		h.putInt(0xFF000000);
+		h.putInt(0x8 | 0x1000 | 0x400000); // complex, texture, mipmap
+		h.position(128);
+		h.flip();
+		return h;
+	}
+
+	private static void writeFully(FileChannel fc, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			fc.write(buf);
+		}
+	}
+}
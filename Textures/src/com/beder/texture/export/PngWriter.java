@@ -0,0 +1,454 @@
+package com.beder.texture.export;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.beder.texture.FloatChannel;
+import com.beder.texture.ImagePair;
+import com.beder.texture.profile.PngExportEvent;
+import com.beder.texture.render.FloatRows;
+import com.beder.texture.render.IntRaster;
+import com.beder.texture.render.TiledImage;
+
+/**
+ * Writes 8-bit RGBA PNGs, and 16-bit grayscale ones for heightmaps, a band of
+ * rows at a time, so a tiled image is streamed to disk without ever being
+ * held on the heap whole. Every row uses
+ * the Sub filter, which suits the smooth gradients most layers produce.
+ * <p>
+ * Like pigz, the rows are split into runs of about JOB_BYTES that are
+ * filtered and deflated in parallel on the common pool, each primed with the
+ * 32K before it, and the blocks are stitched into one zlib stream in order.
+ * Only a bounded number of runs are in flight, so memory stays flat.
+ */
+public final class PngWriter {
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	private static final int IDAT_SIZE = 1 << 16;
+	private static final int BAND = TiledImage.TILE_SIZE;
+	/** About how many filtered bytes each deflate job compresses. */
+	private static final int JOB_BYTES = 1 << 19;
+	private static final int DICTIONARY = 1 << 15;
+	private static final int GRAY = 0, RGBA = 6;
+
+	/**
+	 * Copies rows [y0, y0 + rows) into dst with a stride of the image width.
+	 */
+	private interface RowSource {
+		void read(int y0, int rows, int[] dst);
+	}
+
+	/**
+	 * Rows read and ready to filter: writes the band's row y, counted from
+	 * its first, into row[1..] behind the filter byte.
+	 */
+	private interface Band {
+		void filter(int y, byte[] row);
+	}
+
+	/**
+	 * Reads rows [y0, y0 + rows) so that jobs can filter them later.
+	 */
+	private interface BandSource {
+		Band read(int y0, int rows);
+	}
+
+	private PngWriter() {
+	}
+
+	public static void write(BufferedImage img, File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			write(img, file.getName(), out);
+		}
+	}
+
+	public static void write(TiledImage img, File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			write(img, file.getName(), out);
+		}
+	}
+
+	/**
+	 * Writes to a stream, which is left open.
+	 * @param name what the export is called in the profiler
+	 */
+	public static void write(BufferedImage img, String name, OutputStream out) throws IOException {
+		IntRaster src = IntRaster.read(img);
+		int w = src.getWidth();
+		write(w, src.getHeight(), (y0, rows, dst) -> {
+			for (int y = 0; y < rows; y++) {
+				System.arraycopy(src.getData(), src.rowOffset(y0 + y), dst, y * w, w);
+			}
+		}, name, out);
+	}
+
+	/**
+	 * Writes to a stream, which is left open.
+	 * @param name what the export is called in the profiler
+	 */
+	public static void write(TiledImage img, String name, OutputStream out) throws IOException {
+		write(img.getWidth(), img.getHeight(), img::readRows, name, out);
+	}
+
+	/**
+	 * Writes the left side, streaming it from its tiles if it has them.
+	 */
+	public static void writeLeft(ImagePair pair, File file) throws IOException {
+		TiledImage tiled = pair.getLeftTiled();
+		if (tiled != null) {
+			write(tiled, file);
+		} else {
+			write(pair.getLeft(), file);
+		}
+	}
+
+	/**
+	 * Writes the right side, streaming it from its tiles if it has them.
+	 */
+	public static void writeRight(ImagePair pair, File file) throws IOException {
+		TiledImage tiled = pair.getRightTiled();
+		if (tiled != null) {
+			write(tiled, file);
+		} else {
+			write(pair.getRight(), file);
+		}
+	}
+
+	/**
+	 * Writes both sides at once, the left on the common pool and the right
+	 * on the calling thread.
+	 */
+	public static void writePair(ImagePair pair, File left, File right) throws IOException {
+		CompletableFuture<Void> l = CompletableFuture.runAsync(() -> {
+			try {
+				writeLeft(pair, left);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, ForkJoinPool.commonPool());
+		try {
+			writeRight(pair, right);
+		} finally {
+			try {
+				l.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof UncheckedIOException) {
+					throw ((UncheckedIOException) e.getCause()).getCause();
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Writes a channel as a 16-bit grayscale PNG, so heights keep the
+	 * precision the 8-bit images lose. The values are read a band of rows at
+	 * a time, so a tiled channel is streamed like a tiled image.
+	 */
+	public static void writeGray16(FloatRows channel, File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			writeGray16(channel, file.getName(), out);
+		}
+	}
+
+	/**
+	 * Writes to a stream, which is left open.
+	 * @param name what the export is called in the profiler
+	 */
+	public static void writeGray16(FloatRows channel, String name, OutputStream out) throws IOException {
+		int w = channel.getWidth();
+		write(w, channel.getHeight(), 16, GRAY, 2, (y0, rows) -> {
+			float[] band = new float[w * rows];
+			channel.readRows(y0, rows, band);
+			return (y, row) -> encodeGray16Row(band, y * w, w, row);
+		}, name, out);
+	}
+
+	private static void write(int width, int height, RowSource source, String name, OutputStream out) throws IOException {
+		write(width, height, 8, RGBA, 4, (y0, rows) -> {
+			int[] band = new int[width * rows];
+			source.read(y0, rows, band);
+			return (y, row) -> encodeRow(band, y * width, width, row);
+		}, name, out);
+	}
+
+	private static void write(int width, int height, int bitDepth, int colorType, int bytesPerPixel,
+			BandSource source, String name, OutputStream out) throws IOException {
+		PngExportEvent event = new PngExportEvent();
+		event.start(name, width);
+		try {
+			encode(width, height, bitDepth, colorType, bytesPerPixel, source, out);
+		} finally {
+			event.finish();
+		}
+	}
+
+	private static void encode(int width, int height, int bitDepth, int colorType, int bytesPerPixel,
+			BandSource source, OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.write(SIGNATURE);
+
+		DataOutputStream ihdr = new DataOutputStream(new ChunkStream(out, "IHDR", 13));
+		ihdr.writeInt(width);
+		ihdr.writeInt(height);
+		ihdr.writeByte(bitDepth);
+		ihdr.writeByte(colorType);
+		ihdr.writeByte(0); // deflate
+		ihdr.writeByte(0); // adaptive filtering
+		ihdr.writeByte(0); // no interlace
+		ihdr.close();
+
+		int rowBytes = 1 + width * bytesPerPixel;
+		int jobRows = Math.max(1, Math.min(BAND, JOB_BYTES / rowBytes));
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		int window = 2 * pool.getParallelism() + 1;
+		ArrayDeque<CompletableFuture<Block>> pending = new ArrayDeque<CompletableFuture<Block>>();
+		long adler = 1;
+
+		try (ChunkStream idat = new ChunkStream(out, "IDAT", IDAT_SIZE)) {
+			idat.write(0x78); // zlib header: deflate, 32K window,
+			idat.write(0x9C); // default level
+			Band prev = null;
+			int prevRows = 0;
+			for (int y0 = 0; y0 < height; y0 += BAND) {
+				int rows = Math.min(BAND, height - y0);
+				Band band = source.read(y0, rows);
+				for (int j = 0; j < rows; j += jobRows) {
+					if (pending.size() >= window) {
+						adler = emit(pending.poll(), idat, adler);
+					}
+					int first = j, n = Math.min(jobRows, rows - j);
+					Band before = prev;
+					int beforeRows = prevRows;
+					boolean last = y0 + j + n == height;
+					pending.add(CompletableFuture.supplyAsync(
+							() -> deflate(band, before, beforeRows, first, n, rowBytes, last), pool));
+				}
+				prev = band;
+				prevRows = rows;
+			}
+			while (!pending.isEmpty()) {
+				adler = emit(pending.poll(), idat, adler);
+			}
+			idat.write((int) (adler >>> 24));
+			idat.write((int) (adler >>> 16));
+			idat.write((int) (adler >>> 8));
+			idat.write((int) adler);
+		}
+
+		new ChunkStream(out, "IEND", 0).close();
+		out.flush();
+	}
+
+	/**
+	 * Filters and compresses one job's rows into a headerless deflate block.
+	 * Rows come from band, starting at row first; the rows just before, up to
+	 * 32K of them once filtered, seed the dictionary the way they would if
+	 * the whole image were one stream. Every block but the last ends on a
+	 * sync flush, so the blocks can simply be concatenated.
+	 * @param before the previous band, or null for the first
+	 */
+	private static Block deflate(Band band, Band before, int beforeRows, int first, int rows, int rowBytes, boolean last) {
+		byte[] row = new byte[rowBytes];
+		row[0] = 1; // Sub
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			int dictRows = (DICTIONARY + row.length - 1) / row.length;
+			int fromBand = Math.min(first, dictRows);
+			int fromBefore = Math.min(dictRows - fromBand, beforeRows);
+			if (fromBand + fromBefore > 0) {
+				byte[] dict = new byte[(fromBand + fromBefore) * row.length];
+				int o = 0;
+				for (int y = beforeRows - fromBefore; y < beforeRows; y++, o += row.length) {
+					before.filter(y, row);
+					System.arraycopy(row, 0, dict, o, row.length);
+				}
+				for (int y = first - fromBand; y < first; y++, o += row.length) {
+					band.filter(y, row);
+					System.arraycopy(row, 0, dict, o, row.length);
+				}
+				int len = Math.min(DICTIONARY, dict.length);
+				deflater.setDictionary(dict, dict.length - len, len);
+			}
+
+			Adler32 adler = new Adler32();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(rows * row.length / 4 + 64);
+			byte[] buf = new byte[IDAT_SIZE];
+			for (int y = first; y < first + rows; y++) {
+				band.filter(y, row);
+				adler.update(row);
+				deflater.setInput(row);
+				while (!deflater.needsInput()) {
+					out.write(buf, 0, deflater.deflate(buf));
+				}
+			}
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					out.write(buf, 0, deflater.deflate(buf));
+				}
+			} else {
+				int n;
+				do {
+					n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+					out.write(buf, 0, n);
+				} while (n == buf.length);
+			}
+			return new Block(out.toByteArray(), adler.getValue(), (long) rows * row.length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Waits for a block, writes it and folds its checksum into the running one.
+	 * @return the Adler-32 of everything written so far
+	 */
+	private static long emit(CompletableFuture<Block> job, OutputStream idat, long adler) throws IOException {
+		Block block;
+		try {
+			block = job.join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+		}
+		idat.write(block.data);
+		return combineAdler(adler, block.adler, block.length);
+	}
+
+	/**
+	 * @return the Adler-32 of two byte runs back to back, given each one's
+	 *         checksum and the length of the second, as zlib's adler32_combine
+	 */
+	static long combineAdler(long a1, long a2, long len2) {
+		final long base = 65521;
+		long rem = len2 % base;
+		long sum1 = a1 & 0xFFFF;
+		long sum2 = (rem * sum1) % base;
+		sum1 += (a2 & 0xFFFF) + base - 1;
+		sum2 += (a1 >>> 16) + (a2 >>> 16) + base - rem;
+		if (sum1 >= base) sum1 -= base;
+		if (sum1 >= base) sum1 -= base;
+		if (sum2 >= base << 1) sum2 -= base << 1;
+		if (sum2 >= base) sum2 -= base;
+		return sum1 | (sum2 << 16);
+	}
+
+	/**
+	 * One job's compressed bytes, and the checksum and length of its input.
+	 */
+	private static final class Block {
+		final byte[] data;
+		final long adler;
+		final long length;
+
+		Block(byte[] data, long adler, long length) {
+			this.data = data;
+			this.adler = adler;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Converts one row of a channel to Sub-filtered big-endian 16-bit
+	 * samples after the filter byte.
+	 */
+	private static void encodeGray16Row(float[] src, int offset, int width, byte[] row) {
+		int prev = 0;
+		for (int x = 0, o = 1; x < width; x++, o += 2) {
+			int v = FloatChannel.toUInt16(src[offset + x]);
+			row[o] = (byte) ((v >> 8) - (prev >> 8));
+			row[o + 1] = (byte) (v - prev);
+			prev = v;
+		}
+	}
+
+	/**
+	 * Converts one ARGB row to Sub-filtered RGBA bytes after the filter byte.
+	 */
+	private static void encodeRow(int[] src, int offset, int width, byte[] row) {
+		int pr = 0, pg = 0, pb = 0, pa = 0;
+		for (int x = 0, o = 1; x < width; x++, o += 4) {
+			int argb = src[offset + x];
+			int r = (argb >> 16) & 0xFF, g = (argb >> 8) & 0xFF, b = argb & 0xFF, a = argb >>> 24;
+			row[o] = (byte) (r - pr);
+			row[o + 1] = (byte) (g - pg);
+			row[o + 2] = (byte) (b - pb);
+			row[o + 3] = (byte) (a - pa);
+			pr = r; pg = g; pb = b; pa = a;
+		}
+	}
+
+	/**
+	 * Buffers bytes into chunks of one type, each written with its length and
+	 * CRC once full and the last one on close. Closing leaves the underlying
+	 * stream open.
+	 */
+	private static final class ChunkStream extends OutputStream {
+		private final DataOutputStream out;
+		private final byte[] type;
+		private final byte[] buf;
+		private int len;
+		private boolean wrote;
+
+		ChunkStream(DataOutputStream out, String type, int size) {
+			this.out = out;
+			this.type = type.getBytes(StandardCharsets.US_ASCII);
+			this.buf = new byte[size];
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (len == buf.length) {
+				emit();
+			}
+			buf[len++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int n) throws IOException {
+			while (n > 0) {
+				if (len == buf.length) {
+					emit();
+				}
+				int k = Math.min(n, buf.length - len);
+				System.arraycopy(b, off, buf, len, k);
+				len += k;
+				off += k;
+				n -= k;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (len > 0 || !wrote) {
+				emit();
+			}
+		}
+
+		private void emit() throws IOException {
+			CRC32 crc = new CRC32();
+			crc.update(type);
+			crc.update(buf, 0, len);
+			out.writeInt(len);
+			out.write(type);
+			out.write(buf, 0, len);
+			out.writeInt((int) crc.getValue());
+			len = 0;
+			wrote = true;
+		}
+	}
+}
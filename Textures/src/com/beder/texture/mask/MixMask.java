@@ -0,0 +1,176 @@
+package com.beder.texture.mask;
+
+import java.awt.image.BufferedImage;
+
+import com.beder.texture.ImagePair;
+import com.beder.texture.Operation;
+import com.beder.texture.Parameters;
+import com.beder.texture.RenderContext;
+import com.beder.texture.render.IntRaster;
+import com.beder.texture.render.TileRenderer;
+import com.beder.texture.render.TiledImage;
+import com.beder.texture.render.VectorSupport;
+
+/**
+ * Blends the left image onto the right one; the left stays as it is. Each
+ * pixel of the right becomes a mix of itself and the blend of both, weighted
+ * by the left pixel's alpha times Amount, so a left image with transparency
+ * acts as the mask. Lerp simply puts the left over the right that way.
+ * <p>
+ * Works on the raw ARGB arrays a band of rows at a time, with the Vector API
+ * where it is available and a scalar loop with the same arithmetic, and so
+ * the same result, where it is not. If either side is held in tiles, the
+ * result is written to tiles too, a band of tile rows at a time.
+ */
+public class MixMask extends Operation {
+	public static final int LERP = 0, MULTIPLY = 1, SCREEN = 2, OVERLAY = 3, ADD = 4, MIN = 5, MAX = 6;
+	private static final String[] MODES = { "lerp", "multiply", "screen", "overlay", "add", "min", "max" };
+	private static final int BAND = 64;
+	static final float INV_255 = 1f / 255f;
+
+	private final int modeSlot;
+	private final int amountSlot;
+
+	public MixMask() {
+		super();
+		modeSlot = addParameter("Mode", CONTROL_TYPE.INT, LERP);
+		amountSlot = addParameter("Amount", CONTROL_TYPE.SLIDER, 100);
+	}
+
+	@Override
+	public ImagePair executeOperation(RenderContext ctx, ImagePair pair, Parameters par) {
+		int mode = Math.max(LERP, Math.min(MAX, par.getInt(modeSlot)));
+		// Scaled so that alpha * k is the weight in [0,1]
+		float k = (float) (Math.max(0, Math.min(100, par.get(amountSlot))) / 100.0 / 255.0);
+		if (pair.getLeftTiled() != null || pair.getRightTiled() != null) {
+			return pair.withRight(blendTiled(ctx, rows(pair.getLeftTiled(), pair, true), rows(pair.getRightTiled(), pair, false), mode, k));
+		}
+		BufferedImage out = blend(ctx, pair.getLeft(), pair.getRight(), mode, k);
+		return pair.withRight(out);
+	}
+
+	/**
+	 * Copies rows [y0, y0 + rows) into dst with a stride of the image width.
+	 */
+	private interface RowSource {
+		void read(int y0, int rows, int[] dst);
+	}
+
+	/**
+	 * @return the side's tiles, or its heap image if it has none
+	 */
+	private static RowSource rows(TiledImage tiled, ImagePair pair, boolean left) {
+		if (tiled != null) {
+			return tiled::readRows;
+		}
+		IntRaster r = IntRaster.read(left ? pair.getLeft() : pair.getRight());
+		int w = r.getWidth();
+		return (y0, rows, dst) -> {
+			for (int y = 0; y < rows; y++) {
+				System.arraycopy(r.getData(), r.rowOffset(y0 + y), dst, y * w, w);
+			}
+		};
+	}
+
+	private static TiledImage blendTiled(RenderContext ctx, RowSource top, RowSource base, int mode, float k) {
+		int res = ctx.getRes();
+		TiledImage dst = new TiledImage(res, res);
+		boolean vector = VectorSupport.isAvailable();
+		TileRenderer.forEachBand(ctx.getPool(), res, TiledImage.TILE_SIZE, (y0, y1) -> {
+			ctx.checkCancelled();
+			int n = (y1 - y0) * res;
+			int[] t = new int[n], b = new int[n], out = new int[n];
+			top.read(y0, y1 - y0, t);
+			base.read(y0, y1 - y0, b);
+			// Rows are back to back, so the band is one run
+			if (vector) {
+				VectorMix.blendRow(mode, k, t, 0, b, 0, out, 0, n);
+			} else {
+				blendRow(mode, k, t, 0, b, 0, out, 0, n);
+			}
+			dst.writeRows(y0, y1 - y0, out);
+		});
+		return dst;
+	}
+
+	/**
+	 * Blends top onto base, which must be the same size, into a new image.
+	 */
+	static BufferedImage blend(RenderContext ctx, BufferedImage top, BufferedImage base, int mode, float k) {
+		IntRaster t = IntRaster.read(top), b = IntRaster.read(base);
+		int w = b.getWidth(), h = b.getHeight();
+		IntRaster dst = IntRaster.create(w, h);
+		boolean vector = VectorSupport.isAvailable();
+		TileRenderer.forEachBand(ctx.getPool(), h, BAND, (y0, y1) -> {
+			ctx.checkCancelled();
+			for (int y = y0; y < y1; y++) {
+				if (vector) {
+					VectorMix.blendRow(mode, k, t.getData(), t.rowOffset(y), b.getData(), b.rowOffset(y), dst.getData(), dst.rowOffset(y), w);
+				} else {
+					blendRow(mode, k, t.getData(), t.rowOffset(y), b.getData(), b.rowOffset(y), dst.getData(), dst.rowOffset(y), w);
+				}
+			}
+		});
+		return dst.getImage();
+	}
+
+	/**
+	 * Blends n pixels of top onto base, scalar. VectorMix must match this
+	 * operation for operation.
+	 */
+	static void blendRow(int mode, float k, int[] top, int t, int[] base, int b, int[] out, int o, int n) {
+		for (int i = 0; i < n; i++) {
+			int tp = top[t + i], bp = base[b + i];
+			float ta = tp >>> 24;
+			float w = ta * k;
+			int a = mix(LERP, bp >>> 24, ta, w);
+			int r = mix(mode, (bp >> 16) & 0xFF, (tp >> 16) & 0xFF, w);
+			int g = mix(mode, (bp >> 8) & 0xFF, (tp >> 8) & 0xFF, w);
+			int bl = mix(mode, bp & 0xFF, tp & 0xFF, w);
+			out[o + i] = (a << 24) | (r << 16) | (g << 8) | bl;
+		}
+	}
+
+	private static int mix(int mode, float bc, float tc, float w) {
+		float f;
+		switch (mode) {
+		case MULTIPLY:
+			f = bc * tc * INV_255;
+			break;
+		case SCREEN:
+			f = 255f - (255f - bc) * (255f - tc) * INV_255;
+			break;
+		case OVERLAY:
+			f = bc < 128f ? 2f * bc * tc * INV_255 : 255f - 2f * (255f - bc) * (255f - tc) * INV_255;
+			break;
+		case ADD:
+			f = Math.min(255f, bc + tc);
+			break;
+		case MIN:
+			f = Math.min(bc, tc);
+			break;
+		case MAX:
+			f = Math.max(bc, tc);
+			break;
+		default:
+			f = tc;
+			break;
+		}
+		int v = (int) (bc + (f - bc) * w + 0.5f);
+		return Math.max(0, Math.min(255, v));
+	}
+
+	@Override
+	public String getDescription() {
+		StringBuilder sb = new StringBuilder("Mix: blend left onto right; Mode");
+		for (int m = 0; m < MODES.length; m++) {
+			sb.append(m == 0 ? " " : ", ").append(m).append(' ').append(MODES[m]);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String getTitle() {
+		return "Mix";
+	}
+}
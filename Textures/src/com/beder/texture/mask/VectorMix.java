@@ -0,0 +1,183 @@
+package com.beder.texture.mask;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * MixMask's row blend on the Vector API: a whole vector of pixels is split
+ * into its four channels as floats, blended, and packed again. Only loaded
+ * once VectorSupport says the API is there.
+ * <p>
+ * Each mode has its own loop, since with the mode switched on inside one
+ * loop the compiler stops inlining before the vectors fit in registers.
+ * Conversions name their target species as constants for the same reason:
+ * otherwise they are not compiled to vector instructions at all.
+ */
+final class VectorMix {
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	/** The same shape as INTS, so conversions keep the lane count. */
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+	private VectorMix() {
+	}
+
+	/**
+	 * Same contract and same result as MixMask.blendRow.
+	 */
+	static void blendRow(int mode, float k, int[] top, int t, int[] base, int b, int[] out, int o, int n) {
+		int bound = INTS.loopBound(n);
+		switch (mode) {
+		case MixMask.MULTIPLY:
+			multiplyRow(k, top, t, base, b, out, o, bound);
+			break;
+		case MixMask.SCREEN:
+			screenRow(k, top, t, base, b, out, o, bound);
+			break;
+		case MixMask.OVERLAY:
+			overlayRow(k, top, t, base, b, out, o, bound);
+			break;
+		case MixMask.ADD:
+			addRow(k, top, t, base, b, out, o, bound);
+			break;
+		case MixMask.MIN:
+			minRow(k, top, t, base, b, out, o, bound);
+			break;
+		case MixMask.MAX:
+			maxRow(k, top, t, base, b, out, o, bound);
+			break;
+		default:
+			lerpRow(k, top, t, base, b, out, o, bound);
+			break;
+		}
+		MixMask.blendRow(mode, k, top, t + bound, base, b + bound, out, o + bound, n - bound);
+	}
+
+	private static void lerpRow(float k, int[] top, int t, int[] base, int b, int[] out, int o, int bound) {
+		for (int i = 0; i < bound; i += INTS.length()) {
+			IntVector tp = IntVector.fromArray(INTS, top, t + i), bp = IntVector.fromArray(INTS, base, b + i);
+			FloatVector ta = alpha(tp), w = ta.mul(k);
+			FloatVector br = red(bp), bg = green(bp), bb = blue(bp);
+			pack(finish(alpha(bp), ta, w), finish(br, red(tp), w),
+					finish(bg, green(tp), w), finish(bb, blue(tp), w)).intoArray(out, o + i);
+		}
+	}
+
+	private static void multiplyRow(float k, int[] top, int t, int[] base, int b, int[] out, int o, int bound) {
+		for (int i = 0; i < bound; i += INTS.length()) {
+			IntVector tp = IntVector.fromArray(INTS, top, t + i), bp = IntVector.fromArray(INTS, base, b + i);
+			FloatVector ta = alpha(tp), w = ta.mul(k);
+			FloatVector br = red(bp), bg = green(bp), bb = blue(bp);
+			pack(finish(alpha(bp), ta, w), finish(br, multiply(br, red(tp)), w),
+					finish(bg, multiply(bg, green(tp)), w), finish(bb, multiply(bb, blue(tp)), w)).intoArray(out, o + i);
+		}
+	}
+
+	private static void screenRow(float k, int[] top, int t, int[] base, int b, int[] out, int o, int bound) {
+		for (int i = 0; i < bound; i += INTS.length()) {
+			IntVector tp = IntVector.fromArray(INTS, top, t + i), bp = IntVector.fromArray(INTS, base, b + i);
+			FloatVector ta = alpha(tp), w = ta.mul(k);
+			FloatVector br = red(bp), bg = green(bp), bb = blue(bp);
+			pack(finish(alpha(bp), ta, w), finish(br, screen(br, red(tp)), w),
+					finish(bg, screen(bg, green(tp)), w), finish(bb, screen(bb, blue(tp)), w)).intoArray(out, o + i);
+		}
+	}
+
+	private static void overlayRow(float k, int[] top, int t, int[] base, int b, int[] out, int o, int bound) {
+		for (int i = 0; i < bound; i += INTS.length()) {
+			IntVector tp = IntVector.fromArray(INTS, top, t + i), bp = IntVector.fromArray(INTS, base, b + i);
+			FloatVector ta = alpha(tp), w = ta.mul(k);
+			FloatVector br = red(bp), bg = green(bp), bb = blue(bp);
+			pack(finish(alpha(bp), ta, w), finish(br, overlay(br, red(tp)), w),
+					finish(bg, overlay(bg, green(tp)), w), finish(bb, overlay(bb, blue(tp)), w)).intoArray(out, o + i);
+		}
+	}
+
+	private static void addRow(float k, int[] top, int t, int[] base, int b, int[] out, int o, int bound) {
+		for (int i = 0; i < bound; i += INTS.length()) {
+			IntVector tp = IntVector.fromArray(INTS, top, t + i), bp = IntVector.fromArray(INTS, base, b + i);
+			FloatVector ta = alpha(tp), w = ta.mul(k);
+			FloatVector br = red(bp), bg = green(bp), bb = blue(bp);
+			pack(finish(alpha(bp), ta, w), finish(br, br.add(red(tp)).min(255f), w),
+					finish(bg, bg.add(green(tp)).min(255f), w), finish(bb, bb.add(blue(tp)).min(255f), w)).intoArray(out, o + i);
+		}
+	}
+
+	private static void minRow(float k, int[] top, int t, int[] base, int b, int[] out, int o, int bound) {
+		for (int i = 0; i < bound; i += INTS.length()) {
+			IntVector tp = IntVector.fromArray(INTS, top, t + i), bp = IntVector.fromArray(INTS, base, b + i);
+			FloatVector ta = alpha(tp), w = ta.mul(k);
+			FloatVector br = red(bp), bg = green(bp), bb = blue(bp);
+			pack(finish(alpha(bp), ta, w), finish(br, br.min(red(tp)), w),
+					finish(bg, bg.min(green(tp)), w), finish(bb, bb.min(blue(tp)), w)).intoArray(out, o + i);
+		}
+	}
+
+	private static void maxRow(float k, int[] top, int t, int[] base, int b, int[] out, int o, int bound) {
+		for (int i = 0; i < bound; i += INTS.length()) {
+			IntVector tp = IntVector.fromArray(INTS, top, t + i), bp = IntVector.fromArray(INTS, base, b + i);
+			FloatVector ta = alpha(tp), w = ta.mul(k);
+			FloatVector br = red(bp), bg = green(bp), bb = blue(bp);
+			pack(finish(alpha(bp), ta, w), finish(br, br.max(red(tp)), w),
+					finish(bg, bg.max(green(tp)), w), finish(bb, bb.max(blue(tp)), w)).intoArray(out, o + i);
+		}
+	}
+
+	// One helper per channel, so every shift is a constant where it is compiled
+	private static FloatVector alpha(IntVector argb) {
+		return toFloat(argb.lanewise(VectorOperators.LSHR, 24));
+	}
+
+	private static FloatVector red(IntVector argb) {
+		return toFloat(argb.lanewise(VectorOperators.LSHR, 16).and(0xFF));
+	}
+
+	private static FloatVector green(IntVector argb) {
+		return toFloat(argb.lanewise(VectorOperators.LSHR, 8).and(0xFF));
+	}
+
+	private static FloatVector blue(IntVector argb) {
+		return toFloat(argb.and(0xFF));
+	}
+
+	private static FloatVector toFloat(IntVector v) {
+		return (FloatVector) v.convertShape(VectorOperators.I2F, FLOATS, 0);
+	}
+
+	private static FloatVector multiply(FloatVector bc, FloatVector tc) {
+		return bc.mul(tc).mul(MixMask.INV_255);
+	}
+
+	private static FloatVector screen(FloatVector bc, FloatVector tc) {
+		return inverse(inverse(bc).mul(inverse(tc)).mul(MixMask.INV_255));
+	}
+
+	private static FloatVector overlay(FloatVector bc, FloatVector tc) {
+		FloatVector lo = bc.mul(2f).mul(tc).mul(MixMask.INV_255);
+		FloatVector hi = inverse(inverse(bc).mul(2f).mul(inverse(tc)).mul(MixMask.INV_255));
+		return hi.blend(lo, bc.compare(VectorOperators.LT, 128f));
+	}
+
+	/**
+	 * @return 255 - v
+	 */
+	private static FloatVector inverse(FloatVector v) {
+		return v.neg().add(255f);
+	}
+
+	/**
+	 * @return bc moved towards the blend f by w, rounded and clamped to a byte
+	 */
+	private static IntVector finish(FloatVector bc, FloatVector f, FloatVector w) {
+		FloatVector v = bc.add(f.sub(bc).mul(w)).add(0.5f);
+		return ((IntVector) v.convertShape(VectorOperators.F2I, INTS, 0)).max(0).min(255);
+	}
+
+	private static IntVector pack(IntVector a, IntVector r, IntVector g, IntVector b) {
+		return a.lanewise(VectorOperators.LSHL, 24)
+				.or(r.lanewise(VectorOperators.LSHL, 16))
+				.or(g.lanewise(VectorOperators.LSHL, 8))
+				.or(b);
+	}
+}
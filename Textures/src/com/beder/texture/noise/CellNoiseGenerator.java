@@ -3,7 +3,7 @@ package com.beder.texture.noise;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -14,26 +14,37 @@ import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.triangulate.DelaunayTriangulationBuilder;
 
+import com.beder.texture.ImagePair;
 import com.beder.texture.Parameters;
-import com.beder.texture.Redrawable;
+import com.beder.texture.RenderContext;
+import com.beder.texture.render.PixelKernel;
+import com.beder.texture.render.TileRenderer;
+import com.beder.texture.render.TiledImage;
 
 public class CellNoiseGenerator extends NoiseOperation {
     private final static String PARAM_FREQ = "Frequency";
     private final static String PARAM_GUAS = "Guassian";
+    private final int freqSlot, guasSlot;
 
-    public CellNoiseGenerator(Redrawable redraw) {
-        super(redraw);
+    public CellNoiseGenerator() {
+        super();
 
-        addParameter(PARAM_FREQ, CONTROL_TYPE.INT, 10);
-        addParameter(PARAM_GUAS, CONTROL_TYPE.SLIDER, 40);
+        freqSlot = addParameter(PARAM_FREQ, CONTROL_TYPE.INT, 10);
+        guasSlot = addParameter(PARAM_GUAS, CONTROL_TYPE.SLIDER, 40);
     }
 
     @Override
-    public BufferedImage generateNoise(Parameters param, long seed) {
-        int res = getRedraw().getRes();
-        int cells = (int) param.get(PARAM_FREQ, 10);
-        double mix = param.get(PARAM_GUAS, 40) / 100.0;
-        return generateCellNoise(res, cells, mix, new Random(seed));
+    public BufferedImage generateNoise(RenderContext ctx, ImagePair input, Parameters param, long seed) {
+        int cells = param.getInt(freqSlot);
+        double mix = param.get(guasSlot) / 100.0;
+        return generateCellNoise(ctx, cells, mix, new Random(seed));
+    }
+
+    @Override
+    protected TiledImage generateTiled(RenderContext ctx, ImagePair input, Parameters param, long seed) {
+        int cells = param.getInt(freqSlot);
+        double mix = param.get(guasSlot) / 100.0;
+        return TileRenderer.renderTiled(ctx, cellKernel(ctx, cells, mix, new Random(seed)));
     }
 
      @Override
@@ -46,29 +57,45 @@ public class CellNoiseGenerator extends NoiseOperation {
         return "Cell Noise";
     }
     
-    public static BufferedImage generateCellNoise(int res, int cells, double mix, Random rand) {
-        int[][] noise = generateNoise(res, cells, mix, rand);
-        BufferedImage img = new BufferedImage(res, res, BufferedImage.TYPE_INT_ARGB);
-        for (int y = 0; y < res; y++) {
-            for (int x = 0; x < res; x++) {
-                int color;
-                switch (noise[y][x]) {
-                    case 0: color = 0xFF000000; break; // Black
-                    case 1: color = 0xFFFF0000; break; // Red
-                    case 2: color = 0xFF00FFFF; break; // Cyan
-                    case 3: color = 0xFF0000FF; break; // Blue
-                    default: color = 0xFFFFFFFF; break; // White fallback
+    public static BufferedImage generateCellNoise(RenderContext ctx, int cells, double mix, Random rand) {
+        return TileRenderer.render(ctx, cellKernel(ctx, cells, mix, rand));
+    }
+
+    /**
+     * Builds the diagram and returns a kernel that rasterizes it, for both
+     * heap and tiled renders.
+     */
+    private static PixelKernel cellKernel(RenderContext ctx, int cells, double mix, Random rand) {
+        int res = ctx.getRes();
+        List<Node> nodes = generateNodes(res, cells, mix, rand);
+        return (x, y) -> {
+            Node closest = null;
+            double bestDist = Double.MAX_VALUE;
+            for (Node node : nodes) {
+                double d = wrappedDistance(node, x + 0.5, y + 0.5, res);
+                if (d < bestDist) {
+                    bestDist = d;
+                    closest = node;
                 }
-                img.setRGB(x, y, color);
             }
-        }
-        return img;
+            switch (closest.color) {
+                case 0: return 0xFF000000; // Black
+                case 1: return 0xFFFF0000; // Red
+                case 2: return 0xFF00FFFF; // Cyan
+                case 3: return 0xFF0000FF; // Blue
+                default: return 0xFFFFFFFF; // White fallback
+            }
+        };
     }
     
-    private static int[][] generateNoise(int res, int cells, double mix, Random rand) {
+    /**
+     * Places the jittered cell sites and 4-colors their Delaunay neighbor graph.
+     */
+    private static List<Node> generateNodes(int res, int cells, double mix, Random rand) {
         float cellWidth = (float) res / cells;
         List<Coordinate> seedCoords = new ArrayList<>();
-        Map<Coordinate, Node> coordToNode = new HashMap<>();
+        // In generation order, so the coloring does not depend on the resolution
+        Map<Coordinate, Node> coordToNode = new LinkedHashMap<>();
         
         for (int j = 0; j < cells; j++) {
             for (int i = 0; i < cells; i++) {
@@ -111,22 +138,7 @@ public class CellNoiseGenerator extends NoiseOperation {
         if (!success) {
             System.out.println("❌ Could not find valid 4-coloring.");
         }
-        int[][] out = new int[res][res];
-        for (int y = 0; y < res; y++) {
-            for (int x = 0; x < res; x++) {
-                Node closest = null;
-                double bestDist = Double.MAX_VALUE;
-                for (Node node : nodes) {
-                    double d = wrappedDistance(node, x, y, res);
-                    if (d < bestDist) {
-                        bestDist = d;
-                        closest = node;
-                    }
-                }
-                out[y][x] = closest.color;
-            }
-        }
-        return out;
+        return nodes;
     }
     
    
@@ -196,7 +208,7 @@ public class CellNoiseGenerator extends NoiseOperation {
         }
     }
     
-    private static double wrappedDistance(Node node, int x, int y, int res) {
+    private static double wrappedDistance(Node node, double x, double y, int res) {
         double dx = Math.abs(node.x - x);
         if (dx > res / 2.0) dx = res - dx;
         double dy = Math.abs(node.y - y);
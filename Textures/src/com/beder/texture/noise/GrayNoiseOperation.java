@@ -0,0 +1,67 @@
+package com.beder.texture.noise;
+
+import java.awt.image.BufferedImage;
+
+import com.beder.texture.FloatChannel;
+import com.beder.texture.ImagePair;
+import com.beder.texture.Parameters;
+import com.beder.texture.RenderContext;
+import com.beder.texture.cache.RenderCache;
+import com.beder.texture.render.FloatKernel;
+import com.beder.texture.render.TileRenderer;
+
+/**
+ * A noise generator whose output is a single grayscale channel. The channel is
+ * handed to the next layer as-is; it is only quantized to ARGB when shown or
+ * exported.
+ */
+public abstract class GrayNoiseOperation extends NoiseOperation {
+
+	/**
+	 * Generates the noise as values in [0,1]. The same re-entrancy rules as
+	 * generateNoise() apply.
+	 */
+	public abstract FloatChannel generateChannel(RenderContext ctx, ImagePair input, Parameters par, long seed);
+
+	/**
+	 * @return the per-pixel kernel behind generateChannel(), or null if the
+	 *         generator has none; only generators with a kernel can be tiled
+	 */
+	protected FloatKernel createKernel(RenderContext ctx, Parameters par, long seed) {
+		return null;
+	}
+
+	/**
+	 * Renders into a TiledChannel, so the values keep their precision at
+	 * tiled sizes too; they are quantized lazily if the tiles are read as ARGB.
+	 */
+	@Override
+	protected ImagePair generateInTiles(RenderContext ctx, ImagePair input, Parameters par, long seed) {
+		FloatKernel kernel = createKernel(ctx, par, seed);
+		if (kernel == null) {
+			return null;
+		}
+		return input.withLeft(TileRenderer.renderTiledChannel(ctx, kernel));
+	}
+
+	@Override
+	public BufferedImage generateNoise(RenderContext ctx, ImagePair input, Parameters par, long seed) {
+		return generateChannel(ctx, input, par, seed).toImage();
+	}
+
+	@Override
+	protected ImagePair generate(RenderContext ctx, ImagePair input, Parameters par, long seed) {
+		return input.withLeft(generateChannel(ctx, input, par, seed));
+	}
+
+	@Override
+	protected ImagePair lookup(RenderCache cache, String key, ImagePair input) {
+		FloatChannel channel = cache.getChannel(key);
+		return channel == null ? null : input.withLeft(channel);
+	}
+
+	@Override
+	protected void store(RenderCache cache, String key, ImagePair output) {
+		cache.putChannel(key, output.getLeftChannel());
+	}
+}
@@ -1,86 +1,119 @@
 package com.beder.texture.noise;
 
 import java.awt.image.BufferedImage;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Random;
-import java.util.TreeMap;
-
-import javax.swing.JButton;
-import javax.swing.JPanel;
-import javax.swing.JTextField;
 
 import com.beder.texture.ImagePair;
 import com.beder.texture.Operation;
 import com.beder.texture.Parameters;
-import com.beder.texture.Redrawable;
+import com.beder.texture.RenderContext;
+import com.beder.texture.cache.RenderCache;
+import com.beder.texture.profile.GenerateNoiseEvent;
+import com.beder.texture.render.TiledImage;
 
 public abstract class NoiseOperation extends Operation {
 
-	private JTextField seedField;
-	private JButton randomSeedButton;
-	private BufferedImage result;
-	private ImagePair input;
-	private Parameters lastPar;
 	private final static String PARAM_SEED = "Seed";
+	private final int seedSlot;
 
-	public NoiseOperation(Redrawable r) {
-		super(r);
-		result = null;
-		lastPar = new Parameters();
+	public NoiseOperation() {
+		super();
 		long seed = new Random().nextInt(Integer.MAX_VALUE);
-		addParameter(PARAM_SEED, CONTROL_TYPE.SEED, seed);
+		seedSlot = addParameter(PARAM_SEED, CONTROL_TYPE.SEED, seed);
 	}
 
     /**
-     * Called by child class to add random seed controls on the edit panel
+     * Generates the noise image for the left side of the pair. Must only read
+     * from its arguments so concurrent calls on one instance are safe.
+     * @param input the incoming pair, for generators that are driven by it
      */
-	
-	public abstract BufferedImage generateNoise(Parameters par, long seed);
+	public abstract BufferedImage generateNoise(RenderContext ctx, ImagePair input, Parameters par, long seed);
 	
     /**
-     * Overriding executeOperation() for Noise values. This will call a new function, generateNoise() instead
-     *   if the image needs to be refreshed. It will call getParameters() to get a list of current
-     *   parameters to check against historical
+     * Overriding executeOperation() for Noise values. This will call a new function, generate() instead,
+     *   which replaces the left side of the pair with the noise. Renders are looked up in the
+     *   context's cache first and stored there afterwards. Sizes that should be tiled are rendered
+     *   with generateTiled() where the generator supports it, and are never cached.
      */
 	@Override
-	public final ImagePair executeOperation(ImagePair input, Parameters par) {
-	    // 1) If we've never generated a result yet, force a refresh.
-	    boolean needsRefresh = (result == null);
-	    this.input = input;
+	public final ImagePair executeOperation(RenderContext ctx, ImagePair input, Parameters par) {
+		long seed = par.getLong(seedSlot);
+		RenderCache cache = ctx.getCache();
+		if (cache == null || TiledImage.shouldTile(ctx.getRes())) {
+			return timedGenerate(ctx, input, par, seed);
+		}
+		String key = cache.key(getClass(), ctx.getRes(), par, inputHash(input));
+		ImagePair out = lookup(cache, key, input);
+		if (out == null) {
+			out = timedGenerate(ctx, input, par, seed);
+			store(cache, key, out);
+		}
+		return out;
+	}
 
-	    // 2) Or if any parameter is new or has changed, refresh.
-	    for (String key : par.keySet()) {
-	        double curr = par.get(key);
-	        // lastPar.containsKey tells us if it's new;
-	        // lastPar.get(key, NaN) gives the old value (NaN if missing)
-	        double prev = lastPar.get(key, Double.NaN);
-	        if (!lastPar.containsKey(key) || curr != prev) {
-	            needsRefresh = true;
-	            break;
-	        }
-	    }
+	/**
+	 * Renders the noise, in tiles if the size calls for it, inside a GenerateNoiseEvent.
+	 */
+	private ImagePair timedGenerate(RenderContext ctx, ImagePair input, Parameters par, long seed) {
+		GenerateNoiseEvent event = new GenerateNoiseEvent();
+		event.start(getTitle(), ctx.getRes());
+		try {
+			if (TiledImage.shouldTile(ctx.getRes())) {
+				ImagePair tiled = generateInTiles(ctx, input, par, seed);
+				if (tiled != null) {
+					return tiled;
+				}
+			}
+			return generate(ctx, input, par, seed);
+		} finally {
+			event.finish();
+		}
+	}
 
-	    if (needsRefresh) {
-	        // regenerate and cache both result and parameters
-	    	long seed = (long) par.get(PARAM_SEED, new Random().nextLong());
-	        result = generateNoise(par, seed);
-	        lastPar.clear();
-	        lastPar.putAll(par);
-	    }
+	/**
+	 * @return a hash of the part of the input that generateNoise() reads, or 0 if it reads none
+	 */
+	protected long inputHash(ImagePair input) {
+		return 0;
+	}
 
-	    input.left = result;
-	    return input;
+	/**
+	 * @return the input with its left side replaced by a cached render, or null on a miss
+	 */
+	protected ImagePair lookup(RenderCache cache, String key, ImagePair input) {
+		BufferedImage img = cache.getImage(key);
+		return img == null ? null : input.withLeft(img);
 	}
 
-	public long getSeed() {
-        long seed = Long.parseLong(seedField.getText());
-		return seed;
+	/**
+	 * Saves the left side of a fresh render under the key.
+	 */
+	protected void store(RenderCache cache, String key, ImagePair output) {
+		cache.putImage(key, output.getLeft());
 	}
 
-	public ImagePair getInput() {
-		return input;
+	/**
+	 * Generates the noise straight into tiles, for sizes too large for the heap.
+	 * @return the noise, or null if this generator can only render on the heap
+	 */
+	protected TiledImage generateTiled(RenderContext ctx, ImagePair input, Parameters par, long seed) {
+		return null;
 	}
-	
-	
+
+	/**
+	 * @return the input with its left side replaced by generateTiled(), or
+	 *         null if this generator can only render on the heap
+	 */
+	protected ImagePair generateInTiles(RenderContext ctx, ImagePair input, Parameters par, long seed) {
+		TiledImage tiled = generateTiled(ctx, input, par, seed);
+		return tiled == null ? null : input.withLeft(tiled);
+	}
+
+	/**
+	 * @return the input with its left side replaced by the generated noise
+	 */
+	protected ImagePair generate(RenderContext ctx, ImagePair input, Parameters par, long seed) {
+		return input.withLeft(generateNoise(ctx, input, par, seed));
+	}
+
 }
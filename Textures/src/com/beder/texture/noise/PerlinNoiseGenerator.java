@@ -1,37 +1,40 @@
 package com.beder.texture.noise;
 
-import java.awt.FlowLayout;
-import java.awt.image.BufferedImage;
 import java.util.Random;
 
-import javax.swing.BorderFactory;
-import javax.swing.JLabel;
-import javax.swing.JPanel;
-import javax.swing.JTextField;
-
+import com.beder.texture.FloatChannel;
+import com.beder.texture.ImagePair;
 import com.beder.texture.Parameters;
-import com.beder.texture.Redrawable;
+import com.beder.texture.RenderContext;
+import com.beder.texture.render.FloatKernel;
+import com.beder.texture.render.TileRenderer;
 
 /**
  * Generates a grayscale noise image using Perlin noise with multiple octaves.
  * Frequency and iteration count are configurable, and a seed ensures reproducibility.
  */
-public class PerlinNoiseGenerator extends NoiseOperation {
+public class PerlinNoiseGenerator extends GrayNoiseOperation {
     private static final String PARAM_FREQ = "Frequency";
     private static final String PARAM_ITER = "Iterations";
+    private final int freqSlot, iterSlot;
 
-    public PerlinNoiseGenerator(Redrawable redraw) {
-        super(redraw);
-        addParameter(PARAM_FREQ, CONTROL_TYPE.INT, 4);
-        addParameter(PARAM_ITER, CONTROL_TYPE.INT, 4);
+    public PerlinNoiseGenerator() {
+        super();
+        freqSlot = addParameter(PARAM_FREQ, CONTROL_TYPE.INT, 4);
+        iterSlot = addParameter(PARAM_ITER, CONTROL_TYPE.INT, 4);
     }
 
 
     @Override
-    public BufferedImage generateNoise(Parameters par, long seed) {
-        int res = getRedraw().getRes();
-        double baseFreq = par.get(PARAM_FREQ, 4);
-        int iterations = (int) par.get(PARAM_ITER, 4);
+    public FloatChannel generateChannel(RenderContext ctx, ImagePair input, Parameters par, long seed) {
+        return TileRenderer.renderChannel(ctx, createKernel(ctx, par, seed));
+    }
+
+    @Override
+    protected FloatKernel createKernel(RenderContext ctx, Parameters par, long seed) {
+        int res = ctx.getRes();
+        double baseFreq = par.get(freqSlot);
+        int iterations = par.getInt(iterSlot);
  
         // Build permutation table
         int[] perm = new int[256];
@@ -47,28 +50,21 @@ public class PerlinNoiseGenerator extends NoiseOperation {
         int[] p = new int[512];
         for (int i = 0; i < 512; i++) p[i] = perm[i & 255];
 
-        // Generate multi‑octave Perlin noise
-        BufferedImage img = new BufferedImage(res, res, BufferedImage.TYPE_INT_ARGB);
-        for (int y = 0; y < res; y++) {
-            for (int x = 0; x < res; x++) {
-                double amplitude = 1.0, frequency = baseFreq;
-                double sum = 0, max = 0;
-                for (int o = 0; o < iterations; o++) {
-                    double nx = x * frequency / res, ny = y * frequency / res;
-                    double n = perlin(nx, ny, p);
-                    sum += n * amplitude;
-                    max += amplitude;
-                    amplitude *= 0.5;
-                    frequency *= 2.0;
-                }
-                // Normalize to [0,255]
-                double v = (sum / max + 1) * 0.5;
-                int gray = (int)(v * 255);
-                int color = 0xFF000000 | (gray<<16) | (gray<<8) | gray;
-                img.setRGB(x, y, color);
+        // Multi‑octave Perlin noise, one tile-parallel kernel call per pixel
+        return (x, y) -> {
+            double amplitude = 1.0, frequency = baseFreq;
+            double sum = 0, max = 0;
+            for (int o = 0; o < iterations; o++) {
+                double nx = (x + 0.5) * frequency / res, ny = (y + 0.5) * frequency / res;
+                double n = perlin(nx, ny, p);
+                sum += n * amplitude;
+                max += amplitude;
+                amplitude *= 0.5;
+                frequency *= 2.0;
             }
-        }
-        return img;
+            // Normalize to [0,1]
+            return (float) ((sum / max + 1) * 0.5);
+        };
     }
 
     private double perlin(double x, double y, int[] p) {
@@ -1,20 +1,12 @@
 package com.beder.texture.noise;
 
-import java.awt.BorderLayout;
-import java.awt.FlowLayout;
-import java.awt.image.BufferedImage;
-import java.util.Map;
-import java.util.TreeMap;
-
-import javax.swing.BorderFactory;
-import javax.swing.JLabel;
-import javax.swing.JPanel;
-import javax.swing.JTextField;
-
+import com.beder.texture.FloatChannel;
 import com.beder.texture.ImagePair;
 import com.beder.texture.Operation;
 import com.beder.texture.Parameters;
-import com.beder.texture.Redrawable;
+import com.beder.texture.RenderContext;
+import com.beder.texture.render.FloatKernel;
+import com.beder.texture.render.TileRenderer;
 import com.beder.util.OpenSimplex2S;
 
 /**
@@ -26,36 +18,35 @@ import com.beder.util.OpenSimplex2S;
  * @param seed  The user-provided seed for consistent results.
  */
 
-public class SimplexNoiseGenerator extends NoiseOperation {
+public class SimplexNoiseGenerator extends GrayNoiseOperation {
 
 	private final OpenSimplex2S noise;
 	private final static String PARAM_SCALE = "Scale";
+	private final int scaleSlot;
 
-	public SimplexNoiseGenerator(Redrawable r) {
-		super(r);
+	public SimplexNoiseGenerator() {
+		super();
 		this.noise = new OpenSimplex2S();
 		
-		addParameter(PARAM_SCALE, Operation.CONTROL_TYPE.INT, 200);
+		scaleSlot = addParameter(PARAM_SCALE, Operation.CONTROL_TYPE.INT, 200);
 	}
 
 
 	@Override
-	public BufferedImage generateNoise(Parameters par, long seed) {
-		double scale = par.get(PARAM_SCALE, 200);
-		int res = getRedraw().getRes();
-		
-		BufferedImage img = new BufferedImage(res, res, BufferedImage.TYPE_INT_ARGB);
-		for (int y = 0; y < res; y++) {
-			for (int x = 0; x < res; x++) {
-				double val = noise(x / scale, y / scale, seed);
-				// Normalize from [-1,1] -> [0,1]
-				val = (val + 1) / 2.0;
-				int gray = (int) (val * 255);
-				int color = 0xFF000000 | (gray << 16) | (gray << 8) | gray;
-				img.setRGB(x, y, color);
-			}
-		}
-		return img;
+	public FloatChannel generateChannel(RenderContext ctx, ImagePair input, Parameters par, long seed) {
+		return TileRenderer.renderChannel(ctx, createKernel(ctx, par, seed));
+	}
+
+	@Override
+	protected FloatKernel createKernel(RenderContext ctx, Parameters par, long seed) {
+		double scale = par.get(scaleSlot);
+		// Scale is in reference pixels; sample each pixel at its centre
+		double step = (double) REFERENCE_RES / ctx.getRes() / scale;
+		return (x, y) -> {
+			double val = noise((x + 0.5) * step, (y + 0.5) * step, seed);
+			// Normalize from [-1,1] -> [0,1]
+			return (float) ((val + 1) / 2.0);
+		};
 	}
 
 	
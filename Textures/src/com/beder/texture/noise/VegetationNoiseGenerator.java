@@ -1,29 +1,26 @@
 package com.beder.texture.noise;
 
-import java.awt.FlowLayout;
-import java.awt.image.BufferedImage;
 import java.util.Random;
 
-import javax.swing.JLabel;
-import javax.swing.JPanel;
-import javax.swing.JTextField;
-
+import com.beder.texture.FloatChannel;
+import com.beder.texture.ImagePair;
 import com.beder.texture.Parameters;
-import com.beder.texture.Redrawable;
+import com.beder.texture.RenderContext;
 
-public class VegetationNoiseGenerator extends NoiseOperation {
+public class VegetationNoiseGenerator extends GrayNoiseOperation {
 	
 	private final static String PARAM_SEED_COUNT = "Seeds";
 	private final static String PARAM_GROWTH = "Growth";
 	private final static String PARAM_DEATH = "Death";
 	private final static String PARAM_ITER = "Iterations";
+	private final int seedCountSlot, growthSlot, deathSlot, iterSlot;
 	
-	public VegetationNoiseGenerator(Redrawable redraw) {
-		super(redraw);
-		addParameter(PARAM_SEED_COUNT, CONTROL_TYPE.INT, 100);
-		addParameter(PARAM_GROWTH, CONTROL_TYPE.DOUBLE, 0.5);
-		addParameter(PARAM_DEATH, CONTROL_TYPE.DOUBLE, 0.2);
-		addParameter(PARAM_ITER, CONTROL_TYPE.INT, 50);
+	public VegetationNoiseGenerator() {
+		super();
+		seedCountSlot = addParameter(PARAM_SEED_COUNT, CONTROL_TYPE.INT, 100);
+		growthSlot = addParameter(PARAM_GROWTH, CONTROL_TYPE.DOUBLE, 0.5);
+		deathSlot = addParameter(PARAM_DEATH, CONTROL_TYPE.DOUBLE, 0.2);
+		iterSlot = addParameter(PARAM_ITER, CONTROL_TYPE.INT, 50);
 	}
 
 
@@ -38,43 +35,55 @@ public class VegetationNoiseGenerator extends NoiseOperation {
 	}
 
 	@Override
-    public BufferedImage generateNoise(Parameters param, long seed) {
+	protected long inputHash(ImagePair input) {
+		return input.getLeftHash();
+	}
+
+	@Override
+    public FloatChannel generateChannel(RenderContext ctx, ImagePair input, Parameters param, long seed) {
         Random rand = new Random(seed);
-        BufferedImage fertility = getInput().left;
-        int res = getRedraw().getRes();
-        int seedCount = (int) param.get(PARAM_SEED_COUNT, 100);
-        double growth = param.get(PARAM_GROWTH, 0.5);
-        double deathRate = param.get(PARAM_DEATH, 0.2);
-        int duration = (int) param.get(PARAM_ITER, 50);
+        float[] fertility = input.getLeftChannel().getData();
+        int res = ctx.getRes();
+        int seedCount = param.getInt(seedCountSlot);
+        double growth = param.get(growthSlot);
+        double deathRate = param.get(deathSlot);
+        int duration = param.getInt(iterSlot);
+
+        // Iterations count cycles at the reference resolution, where a colony
+        // spreads at most one pixel per cycle. At other resolutions each cycle
+        // stands for k reference cycles, so colonies reach the same fraction
+        // of the texture. Survival is compounded over k cycles; sprouting,
+        // which also drives the spread, over sqrt(k), which keeps coverage
+        // close to the reference's. Being stochastic, the CA only matches
+        // across resolutions statistically, not pixel for pixel.
+        double k = (double) REFERENCE_RES / res;
+        int cycles = Math.max(1, (int) Math.round(duration / k));
         
         int[][] current = new int[res][res];
         int[][] next = new int[res][res];
 
-        // Seed initial vegetation
+        // Seed initial vegetation on the reference grid
         for (int i = 0; i < seedCount; i++) {
-            int x = rand.nextInt(res);
-            int y = rand.nextInt(res);
+            int x = (int) ((long) rand.nextInt(REFERENCE_RES) * res / REFERENCE_RES);
+            int y = (int) ((long) rand.nextInt(REFERENCE_RES) * res / REFERENCE_RES);
             current[y][x] = 1;
         }
 
         // Run CA cycles
-        for (int cycle = 0; cycle < duration; cycle++) {
+        for (int cycle = 0; cycle < cycles; cycle++) {
+            ctx.checkCancelled();
             for (int y = 0; y < res; y++) {
                 for (int x = 0; x < res; x++) {
-                    int rgb = fertility.getRGB(x, y);
-                    int r = (rgb >> 16) & 0xFF;
-                    int g = (rgb >>  8) & 0xFF;
-                    int b = (rgb      ) & 0xFF;
-                    double fert = ((r + g + b) / 3.0) / 255.0;
+                    double fert = fertility[y * res + x];
 
                     if (current[y][x] == 1) {
                         // Alive cell: survival probability = 1 - deathRate * (1 - fert)
-                        double survivalProb = 1 - deathRate * (1 - fert);
+                        double survivalProb = Math.pow(1 - deathRate * (1 - fert), k);
                         next[y][x] = (rand.nextDouble() < survivalProb) ? 1 : 0;
                     } else {
                         // Dead cell: may sprout if neighbors exist
-                        int aliveNeighbors = countAliveNeighbors(current, x, y);
-                        if (aliveNeighbors > 0 && rand.nextDouble() < fert * growth) {
+                        int aliveNeighbors = countAliveNeighbors(current, x, y, res);
+                        if (aliveNeighbors > 0 && rand.nextDouble() < compound(fert * growth, Math.sqrt(k))) {
                             next[y][x] = 1;
                         } else {
                             next[y][x] = 0;
@@ -86,25 +95,32 @@ public class VegetationNoiseGenerator extends NoiseOperation {
             int[][] temp = current;
             current = next;
             next = temp;
+            ctx.reportProgress((cycle + 1.0) / cycles);
         }
 
         // Render output
-        BufferedImage output = new BufferedImage(res, res, BufferedImage.TYPE_INT_ARGB);
+        FloatChannel output = new FloatChannel(res);
+        float[] out = output.getData();
         for (int y = 0; y < res; y++) {
             for (int x = 0; x < res; x++) {
-                int intensity = current[y][x] == 1 ? 255 : 0;
-                int gray = (intensity << 16) | (intensity << 8) | intensity;
-                output.setRGB(x, y, 0xFF000000 | gray);
+                out[y * res + x] = current[y][x];
             }
         }
         return output;
     }
 
+    /**
+     * @return the chance that an event with chance p per cycle happens at
+     *         least once in k cycles; exactly p when k is 1
+     */
+    private static double compound(double p, double k) {
+        return k == 1 ? p : 1 - Math.pow(1 - p, k);
+    }
+
     /**
      * Counts alive neighbors around (x, y) in a toroidal grid.
      */
-    private int countAliveNeighbors(int[][] grid, int x, int y) {
-        int res = getRedraw().getRes();
+    private int countAliveNeighbors(int[][] grid, int x, int y, int res) {
         int count = 0;
         for (int dy = -1; dy <= 1; dy++) {
             for (int dx = -1; dx <= 1; dx++) {
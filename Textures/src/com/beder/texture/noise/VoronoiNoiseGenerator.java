@@ -3,7 +3,7 @@ package com.beder.texture.noise;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -14,8 +14,12 @@ import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.triangulate.DelaunayTriangulationBuilder;
 
+import com.beder.texture.ImagePair;
 import com.beder.texture.Parameters;
-import com.beder.texture.Redrawable;
+import com.beder.texture.RenderContext;
+import com.beder.texture.render.PixelKernel;
+import com.beder.texture.render.TileRenderer;
+import com.beder.texture.render.TiledImage;
 
 /**
  * Generates a true Voronoi noise image with toroidal wrapping.
@@ -23,17 +27,23 @@ import com.beder.texture.Redrawable;
  */
 public class VoronoiNoiseGenerator extends NoiseOperation {
     private final static String PARAM_POINTS = "Points";
+    private final int pointsSlot;
 
-    public VoronoiNoiseGenerator(Redrawable redraw) {
-        super(redraw);
-        addParameter(PARAM_POINTS, CONTROL_TYPE.DOUBLE, 20);
+    public VoronoiNoiseGenerator() {
+        super();
+        pointsSlot = addParameter(PARAM_POINTS, CONTROL_TYPE.DOUBLE, 20);
     }
 
     @Override
-    public BufferedImage generateNoise(Parameters param, long seed) {
-        int res = getRedraw().getRes();
-        int points = (int) param.get(PARAM_POINTS, 20);
-        return generateVoronoi(res, points, new Random(seed));
+    public BufferedImage generateNoise(RenderContext ctx, ImagePair input, Parameters param, long seed) {
+        int points = param.getInt(pointsSlot);
+        return generateVoronoi(ctx, points, new Random(seed));
+    }
+
+    @Override
+    protected TiledImage generateTiled(RenderContext ctx, ImagePair input, Parameters param, long seed) {
+        int points = param.getInt(pointsSlot);
+        return TileRenderer.renderTiled(ctx, voronoiKernel(ctx, points, new Random(seed)));
     }
 
     @Override
@@ -46,9 +56,19 @@ public class VoronoiNoiseGenerator extends NoiseOperation {
         return "Voronoi";
     }
 
-    public static BufferedImage generateVoronoi(int res, int numPoints, Random rand) {
+    public static BufferedImage generateVoronoi(RenderContext ctx, int numPoints, Random rand) {
+        return TileRenderer.render(ctx, voronoiKernel(ctx, numPoints, rand));
+    }
+
+    /**
+     * Builds the diagram and returns a kernel that rasterizes it, for both
+     * heap and tiled renders.
+     */
+    private static PixelKernel voronoiKernel(RenderContext ctx, int numPoints, Random rand) {
+        int res = ctx.getRes();
         List<Coordinate> seedCoords = new ArrayList<>();
-        Map<Coordinate, VoronoiNode> coordToNode = new HashMap<>();
+        // In generation order, so the coloring does not depend on the resolution
+        Map<Coordinate, VoronoiNode> coordToNode = new LinkedHashMap<>();
 
         // Generate random seed points over the image.
         for (int i = 0; i < numPoints; i++) {
@@ -90,40 +110,29 @@ public class VoronoiNoiseGenerator extends NoiseOperation {
         }
 
         // Rasterize the diagram using toroidal (wrapped) distance.
-        BufferedImage img = new BufferedImage(res, res, BufferedImage.TYPE_INT_ARGB);
-        for (int y = 0; y < res; y++) {
-            for (int x = 0; x < res; x++) {
-                VoronoiNode closest = null;
-                double bestDist = Double.MAX_VALUE;
-                for (VoronoiNode node : nodes) {
-                    double d = wrappedDistance(node, x, y, res);
-                    if (d < bestDist) {
-                        bestDist = d;
-                        closest = node;
-                    }
-                }
-                int color;
-                switch (closest.color) {
-                    case 0:
-                        color = 0xFF000000; // Black
-                        break;
-                    case 1:
-                        color = 0xFFFF0000; // Red
-                        break;
-                    case 2:
-                        color = 0xFF00FFFF; // Cyan
-                        break;
-                    case 3:
-                        color = 0xFF0000FF; // Blue
-                        break;
-                    default:
-                        color = 0xFFFFFFFF; // Fallback (white)
-                        break;
+        return (x, y) -> {
+            VoronoiNode closest = null;
+            double bestDist = Double.MAX_VALUE;
+            for (VoronoiNode node : nodes) {
+                double d = wrappedDistance(node, x + 0.5, y + 0.5, res);
+                if (d < bestDist) {
+                    bestDist = d;
+                    closest = node;
                 }
-                img.setRGB(x, y, color);
             }
-        }
-        return img;
+            switch (closest.color) {
+                case 0:
+                    return 0xFF000000; // Black
+                case 1:
+                    return 0xFFFF0000; // Red
+                case 2:
+                    return 0xFF00FFFF; // Cyan
+                case 3:
+                    return 0xFF0000FF; // Blue
+                default:
+                    return 0xFFFFFFFF; // Fallback (white)
+            }
+        };
     }
 
     /**
@@ -135,7 +144,7 @@ public class VoronoiNoiseGenerator extends NoiseOperation {
      * @param res  The resolution (width/height) of the image.
      * @return The wrapped distance.
      */
-    private static double wrappedDistance(VoronoiNode node, int x, int y, int res) {
+    private static double wrappedDistance(VoronoiNode node, double x, double y, int res) {
         double dx = Math.abs(node.x - x);
         if (dx > res / 2.0) {
             dx = res - dx;
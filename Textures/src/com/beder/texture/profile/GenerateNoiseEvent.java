@@ -0,0 +1,11 @@
+package com.beder.texture.profile;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.beder.texture.GenerateNoise")
+@Label("Generate Noise")
+@Description("A noise generator rendering its image, excluding cache lookups")
+public final class GenerateNoiseEvent extends RenderEvent {
+}
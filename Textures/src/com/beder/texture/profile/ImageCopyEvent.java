@@ -0,0 +1,11 @@
+package com.beder.texture.profile;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.beder.texture.ImageCopy")
+@Label("Image Copy")
+@Description("A shared ImagePair buffer copied before being written; the operation is the side")
+public final class ImageCopyEvent extends RenderEvent {
+}
@@ -0,0 +1,11 @@
+package com.beder.texture.profile;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.beder.texture.LayerApply")
+@Label("Layer Apply")
+@Description("One layer's operation run by Layer.apply()")
+public final class LayerApplyEvent extends RenderEvent {
+}
@@ -0,0 +1,11 @@
+package com.beder.texture.profile;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.beder.texture.PngExport")
+@Label("PNG Export")
+@Description("One PNG written by PngWriter; the operation is the file name")
+public final class PngExportEvent extends RenderEvent {
+}
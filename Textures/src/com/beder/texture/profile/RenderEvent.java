@@ -0,0 +1,92 @@
+package com.beder.texture.profile;
+
+import java.lang.management.ManagementFactory;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Timespan;
+
+/**
+ * Base of the JFR events recorded around the expensive parts of a render.
+ * Besides the wall time every event has, each records what it ran, the
+ * resolution, and the CPU time and bytes allocated by the calling thread.
+ * Work the calling thread hands to a ForkJoinPool, such as the tiles of a
+ * generator, shows in the wall time but not in the CPU time or allocations.
+ * <p>
+ * Record with, for instance, jcmd &lt;pid&gt; JFR.start name=textures, then
+ * look for the Textures category in JDK Mission Control. When no recording
+ * is running, start() and finish() cost next to nothing.
+ */
+@Category("Textures")
+public abstract class RenderEvent extends Event {
+	private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+	@Label("Operation")
+	protected String operation;
+
+	@Label("Resolution")
+	protected int resolution;
+
+	@Label("CPU Time")
+	@Timespan(Timespan.NANOSECONDS)
+	protected long cpuTime;
+
+	@Label("Allocated")
+	@DataAmount
+	protected long allocated;
+
+	private transient long cpuStart, allocStart;
+
+	/**
+	 * Starts timing, if a recording has this event enabled.
+	 * @param operation what is being timed, normally an operation's title
+	 * @param resolution the size being rendered, or 0 if not yet known
+	 */
+	public final void start(String operation, int resolution) {
+		if (!isEnabled()) {
+			return;
+		}
+		this.operation = operation;
+		this.resolution = resolution;
+		if (THREADS != null) {
+			cpuStart = THREADS.getCurrentThreadCpuTime();
+			allocStart = THREADS.getCurrentThreadAllocatedBytes();
+		}
+		begin();
+	}
+
+	public final void setResolution(int resolution) {
+		this.resolution = resolution;
+	}
+
+	/**
+	 * Stops timing and commits the event if the recording's threshold is met.
+	 * Call from the thread that called start().
+	 */
+	public final void finish() {
+		if (!isEnabled()) {
+			return;
+		}
+		end();
+		if (shouldCommit()) {
+			if (THREADS != null) {
+				cpuTime = THREADS.getCurrentThreadCpuTime() - cpuStart;
+				allocated = THREADS.getCurrentThreadAllocatedBytes() - allocStart;
+			}
+			commit();
+		}
+	}
+
+	private static com.sun.management.ThreadMXBean threads() {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			return null;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threads.isCurrentThreadCpuTimeSupported() || !threads.isThreadAllocatedMemorySupported()) {
+			return null;
+		}
+		return threads;
+	}
+}
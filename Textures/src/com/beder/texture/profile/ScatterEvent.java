@@ -0,0 +1,11 @@
+package com.beder.texture.profile;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.beder.texture.Scatter")
+@Label("Scatter Sprites")
+@Description("ScatterOperation pasting its sprites")
+public final class ScatterEvent extends RenderEvent {
+}
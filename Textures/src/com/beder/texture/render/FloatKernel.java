@@ -0,0 +1,14 @@
+package com.beder.texture.render;
+
+/**
+ * Computes one grayscale output sample, nominally in [0,1]. The same purity
+ * rules as PixelKernel apply.
+ */
+@FunctionalInterface
+public interface FloatKernel {
+
+	/**
+	 * @return the value of pixel (x, y)
+	 */
+	public abstract float sample(int x, int y);
+}
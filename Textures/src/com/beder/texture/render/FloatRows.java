@@ -0,0 +1,17 @@
+package com.beder.texture.render;
+
+/**
+ * A grayscale raster that can be read a band of rows at a time, whether it
+ * is on the heap or in tiles, so exporters can stream it.
+ */
+public interface FloatRows {
+
+	public abstract int getWidth();
+
+	public abstract int getHeight();
+
+	/**
+	 * Copies rows [y0, y0 + rows) into dst, row-major with a stride of getWidth().
+	 */
+	public abstract void readRows(int y0, int rows, float[] dst);
+}
@@ -0,0 +1,43 @@
+package com.beder.texture.render;
+
+import java.util.concurrent.ForkJoinPool;
+
+import com.beder.texture.RenderContext;
+import com.beder.texture.cache.RenderCache;
+
+/**
+ * A context that passes everything through to another one. Subclasses
+ * override only the settings they change for part of a render.
+ */
+public class ForwardingContext implements RenderContext {
+	private final RenderContext ctx;
+
+	public ForwardingContext(RenderContext ctx) {
+		this.ctx = ctx;
+	}
+
+	@Override
+	public int getRes() {
+		return ctx.getRes();
+	}
+
+	@Override
+	public ForkJoinPool getPool() {
+		return ctx.getPool();
+	}
+
+	@Override
+	public RenderCache getCache() {
+		return ctx.getCache();
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return ctx.isCancelled();
+	}
+
+	@Override
+	public void reportProgress(double fraction) {
+		ctx.reportProgress(fraction);
+	}
+}
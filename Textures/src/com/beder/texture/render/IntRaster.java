@@ -0,0 +1,151 @@
+package com.beder.texture.render;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Direct access to the packed ARGB ints behind a BufferedImage. Pixel (x, y)
+ * lives at getData()[rowOffset(y) + x], which skips the ColorModel conversion
+ * and bounds checks that getRGB/setRGB pay on every call.
+ * <p>
+ * Note that Java2D stops accelerating an image once its array is exposed, so
+ * this is meant for images that are generated or processed, not blitted
+ * repeatedly to the screen.
+ */
+public final class IntRaster implements IntRows {
+	private final BufferedImage image;
+	private final int[] data;
+	private final int offset, stride, width, height;
+
+	private IntRaster(BufferedImage image) {
+		WritableRaster raster = image.getRaster();
+		SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+		DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+		this.image = image;
+		this.data = db.getData();
+		this.stride = sm.getScanlineStride();
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.offset = db.getOffset()
+				- raster.getSampleModelTranslateY() * stride
+				- raster.getSampleModelTranslateX();
+	}
+
+	/**
+	 * @return a new TYPE_INT_ARGB raster, initially transparent black
+	 */
+	public static IntRaster create(int width, int height) {
+		return new IntRaster(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+	}
+
+	/**
+	 * Wraps an image for writing. Its pixels must be non-premultiplied ARGB
+	 * ints, so only TYPE_INT_ARGB images are accepted.
+	 * @throws IllegalArgumentException for any other image type
+	 */
+	public static IntRaster of(BufferedImage img) {
+		if (img.getType() != BufferedImage.TYPE_INT_ARGB) {
+			throw new IllegalArgumentException("Expected TYPE_INT_ARGB but got type " + img.getType());
+		}
+		return new IntRaster(img);
+	}
+
+	/**
+	 * Wraps an image for reading. Images of any other type are first
+	 * converted to a TYPE_INT_ARGB copy, so writes may not reach the original.
+	 */
+	public static IntRaster read(BufferedImage img) {
+		if (img.getType() == BufferedImage.TYPE_INT_ARGB) {
+			return new IntRaster(img);
+		}
+		BufferedImage argb = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = argb.createGraphics();
+		g.drawImage(img, 0, 0, null);
+		g.dispose();
+		return new IntRaster(argb);
+	}
+
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * @return the backing array, shared with the image
+	 */
+	public int[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return the distance in ints between the starts of two rows
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public void readRows(int y0, int rows, int[] dst) {
+		for (int y = 0, n = Math.min(rows, height - y0); y < n; y++) {
+			System.arraycopy(data, rowOffset(y0 + y), dst, y * width, width);
+		}
+	}
+
+	/**
+	 * @return the index of pixel (0, y) in getData()
+	 */
+	public int rowOffset(int y) {
+		return offset + y * stride;
+	}
+
+	public int get(int x, int y) {
+		return data[offset + y * stride + x];
+	}
+
+	public void set(int x, int y, int argb) {
+		data[offset + y * stride + x] = argb;
+	}
+
+	/**
+	 * @return true if the rows are packed back to back with no padding
+	 */
+	public boolean isContiguous() {
+		return offset == 0 && stride == width;
+	}
+
+	/**
+	 * Averages factor x factor blocks of ARGB pixels, channel by channel and
+	 * rounded, into one row of width output pixels.
+	 * @param src factor rows of at least width * factor pixels, the first at offset
+	 * @param stride the distance between those rows in src
+	 */
+	public static void boxRow(int[] src, int offset, int stride, int factor, int[] dst, int dstOffset, int width) {
+		int n = factor * factor, half = n / 2;
+		for (int x = 0; x < width; x++) {
+			int a = 0, r = 0, g = 0, b = 0;
+			for (int dy = 0; dy < factor; dy++) {
+				int row = offset + dy * stride + x * factor;
+				for (int dx = 0; dx < factor; dx++) {
+					int p = src[row + dx];
+					a += p >>> 24;
+					r += (p >> 16) & 0xFF;
+					g += (p >> 8) & 0xFF;
+					b += p & 0xFF;
+				}
+			}
+			dst[dstOffset + x] = ((a + half) / n) << 24 | ((r + half) / n) << 16 | ((g + half) / n) << 8 | ((b + half) / n);
+		}
+	}
+}
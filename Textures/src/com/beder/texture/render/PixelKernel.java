@@ -0,0 +1,14 @@
+package com.beder.texture.render;
+
+/**
+ * Computes one output pixel. Must depend only on its coordinates and on state
+ * that is not modified while rendering, so tiles can run in any order.
+ */
+@FunctionalInterface
+public interface PixelKernel {
+
+	/**
+	 * @return the ARGB color of pixel (x, y)
+	 */
+	public abstract int shade(int x, int y);
+}
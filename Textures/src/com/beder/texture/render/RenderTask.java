@@ -0,0 +1,41 @@
+package com.beder.texture.render;
+
+import com.beder.texture.RenderContext;
+
+/**
+ * One render request: a context that takes its settings from a base context
+ * and adds a cancellation flag and the latest progress report. The flag is
+ * the token that operations poll through checkCancelled().
+ */
+public class RenderTask extends ForwardingContext {
+	private volatile boolean cancelled;
+	private volatile double progress;
+
+	public RenderTask(RenderContext base) {
+		super(base);
+	}
+
+	/**
+	 * Asks the render to stop. Operations notice at their next check.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled || super.isCancelled();
+	}
+
+	@Override
+	public void reportProgress(double fraction) {
+		progress = fraction;
+	}
+
+	/**
+	 * @return the last fraction reported, from 0 to 1
+	 */
+	public double getProgress() {
+		return progress;
+	}
+}
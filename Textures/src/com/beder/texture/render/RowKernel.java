@@ -0,0 +1,15 @@
+package com.beder.texture.render;
+
+/**
+ * Computes a horizontal run of output pixels. Use this instead of PixelKernel
+ * when work can be shared along a row.
+ */
+@FunctionalInterface
+public interface RowKernel {
+
+	/**
+	 * Writes the ARGB colors of pixels x0 (inclusive) to x1 (exclusive) of row y
+	 * into data[offset] .. data[offset + x1 - x0 - 1].
+	 */
+	public abstract void shadeRow(int y, int x0, int x1, int[] data, int offset);
+}
@@ -0,0 +1,226 @@
+package com.beder.texture.render;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.beder.texture.FloatChannel;
+import com.beder.texture.RenderContext;
+
+/**
+ * Renders an image by splitting it into square tiles that are scheduled on the
+ * context's work-stealing pool. Each tile is written straight into the
+ * destination raster. As long as the kernel is a pure function of the pixel
+ * coordinates, the result is bit-identical to a sequential render.
+ * <p>
+ * The context is checked for cancellation before each tile and told about
+ * progress after each one.
+ */
+public final class TileRenderer {
+	public static final int TILE_SIZE = 64;
+
+	private TileRenderer() {
+	}
+
+	/**
+	 * Renders a res x res ARGB image, one kernel call per pixel.
+	 */
+	public static BufferedImage render(RenderContext ctx, PixelKernel kernel) {
+		return render(ctx, (RowKernel) (y, x0, x1, data, offset) -> {
+			for (int x = x0; x < x1; x++) {
+				data[offset++] = kernel.shade(x, y);
+			}
+		});
+	}
+
+	/**
+	 * Renders a res x res ARGB image, one kernel call per tile row.
+	 */
+	public static BufferedImage render(RenderContext ctx, RowKernel kernel) {
+		int res = ctx.getRes();
+		IntRaster raster = IntRaster.create(res, res);
+		int[] data = raster.getData();
+		forEachTileRow(ctx, ctx.getPool(), res, res, (y, x0, x1) -> kernel.shadeRow(y, x0, x1, data, raster.rowOffset(y) + x0));
+		return raster.getImage();
+	}
+
+	/**
+	 * Renders a res x res grayscale channel, one kernel call per pixel.
+	 */
+	public static FloatChannel renderChannel(RenderContext ctx, FloatKernel kernel) {
+		int res = ctx.getRes();
+		FloatChannel channel = new FloatChannel(res);
+		float[] data = channel.getData();
+		forEachTileRow(ctx, ctx.getPool(), res, res, (y, x0, x1) -> {
+			int offset = y * res;
+			for (int x = x0; x < x1; x++) {
+				data[offset + x] = kernel.sample(x, y);
+			}
+		});
+		return channel;
+	}
+
+	/**
+	 * Fills a width x height row-major ARGB array.
+	 * @param pool the pool to run tiles on, or null to render on the calling thread
+	 */
+	public static void renderInto(ForkJoinPool pool, int[] data, int width, int height, RowKernel kernel) {
+		forEachTileRow(null, pool, width, height, (y, x0, x1) -> kernel.shadeRow(y, x0, x1, data, y * width + x0));
+	}
+
+	/**
+	 * A band of rows to fill: y0 (inclusive) to y1 (exclusive).
+	 */
+	@FunctionalInterface
+	public interface RowBand {
+		void fill(int y0, int y1);
+	}
+
+	/**
+	 * Runs body over bands of at most bandRows rows covering [0, height).
+	 * @param pool the pool to run bands on, or null to run on the calling thread
+	 */
+	public static void forEachBand(ForkJoinPool pool, int height, int bandRows, RowBand body) {
+		forEachTile(null, pool, 1, height, bandRows, (x0, y0, x1, y1) -> body.fill(y0, y1));
+	}
+
+	/**
+	 * Renders a res x res ARGB image straight into a TiledImage, one
+	 * TiledImage tile per task, so no full-size array is ever allocated.
+	 */
+	public static TiledImage renderTiled(RenderContext ctx, RowKernel kernel) {
+		int res = ctx.getRes();
+		int size = TiledImage.TILE_SIZE;
+		TiledImage image = new TiledImage(res, res);
+		forEachTile(ctx, ctx.getPool(), res, res, size, (x0, y0, x1, y1) -> {
+			int[] tile = new int[size * size];
+			for (int y = y0; y < y1; y++) {
+				kernel.shadeRow(y, x0, x1, tile, (y - y0) * size);
+			}
+			image.writeTile(x0 / size, y0 / size, tile);
+		});
+		return image;
+	}
+
+	/**
+	 * Like renderTiled(ctx, RowKernel), one kernel call per pixel.
+	 */
+	public static TiledImage renderTiled(RenderContext ctx, PixelKernel kernel) {
+		return renderTiled(ctx, (RowKernel) (y, x0, x1, data, offset) -> {
+			for (int x = x0; x < x1; x++) {
+				data[offset++] = kernel.shade(x, y);
+			}
+		});
+	}
+
+	/**
+	 * Renders a res x res grayscale channel straight into a TiledChannel,
+	 * one tile per task, like renderTiled().
+	 */
+	public static TiledChannel renderTiledChannel(RenderContext ctx, FloatKernel kernel) {
+		int res = ctx.getRes();
+		int size = TiledChannel.TILE_SIZE;
+		TiledChannel channel = new TiledChannel(res, res);
+		forEachTile(ctx, ctx.getPool(), res, res, size, (x0, y0, x1, y1) -> {
+			float[] tile = new float[size * size];
+			for (int y = y0; y < y1; y++) {
+				for (int x = x0, o = (y - y0) * size; x < x1; x++) {
+					tile[o++] = kernel.sample(x, y);
+				}
+			}
+			channel.writeTile(x0 / size, y0 / size, tile);
+		});
+		return channel;
+	}
+
+	/**
+	 * The part of a tile row to fill: pixels x0 (inclusive) to x1 (exclusive) of row y.
+	 */
+	@FunctionalInterface
+	private interface TileRow {
+		void fill(int y, int x0, int x1);
+	}
+
+	/**
+	 * A whole tile to fill: columns x0 to x1 and rows y0 to y1, upper bounds exclusive.
+	 */
+	@FunctionalInterface
+	private interface TileBody {
+		void fill(int x0, int y0, int x1, int y1);
+	}
+
+	private static void forEachTileRow(RenderContext ctx, ForkJoinPool pool, int width, int height, TileRow row) {
+		forEachTile(ctx, pool, width, height, TILE_SIZE, (x0, y0, x1, y1) -> {
+			for (int y = y0; y < y1; y++) {
+				row.fill(y, x0, x1);
+			}
+		});
+	}
+
+	/**
+	 * @param ctx the context to check for cancellation and report progress to, or null
+	 */
+	private static void forEachTile(RenderContext ctx, ForkJoinPool pool, int width, int height, int size, TileBody body) {
+		int tilesX = (width + size - 1) / size;
+		int tilesY = (height + size - 1) / size;
+		TileTask all = new TileTask(ctx, new AtomicInteger(), width, height, size, tilesX, body, 0, tilesX * tilesY);
+		if (pool == null) {
+			for (int t = 0; t < tilesX * tilesY; t++) {
+				all.renderTile(t);
+			}
+		} else {
+			pool.invoke(all);
+		}
+	}
+
+	/**
+	 * A contiguous range of tile indices, split in half until one tile remains.
+	 * Never serialized, so its fields need not be serializable either.
+	 */
+	@SuppressWarnings("serial")
+	private static class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final RenderContext ctx;
+		private final AtomicInteger done;
+		private final int width, height, size, tilesX;
+		private final TileBody body;
+		private final int lo, hi;
+
+		TileTask(RenderContext ctx, AtomicInteger done, int width, int height, int size, int tilesX, TileBody body, int lo, int hi) {
+			this.ctx = ctx;
+			this.done = done;
+			this.width = width;
+			this.height = height;
+			this.size = size;
+			this.tilesX = tilesX;
+			this.body = body;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo <= 1) {
+				renderTile(lo);
+			} else {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new TileTask(ctx, done, width, height, size, tilesX, body, lo, mid),
+						  new TileTask(ctx, done, width, height, size, tilesX, body, mid, hi));
+			}
+		}
+
+		void renderTile(int tile) {
+			if (ctx != null) {
+				ctx.checkCancelled();
+			}
+			int x0 = (tile % tilesX) * size;
+			int y0 = (tile / tilesX) * size;
+			body.fill(x0, y0, Math.min(x0 + size, width), Math.min(y0 + size, height));
+			if (ctx != null) {
+				int tilesY = (height + size - 1) / size;
+				ctx.reportProgress((double) done.incrementAndGet() / (tilesX * tilesY));
+			}
+		}
+	}
+}
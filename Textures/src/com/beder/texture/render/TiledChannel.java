@@ -0,0 +1,181 @@
+package com.beder.texture.render;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import com.beder.texture.FloatChannel;
+import com.beder.texture.cache.ContentHash;
+
+/**
+ * A grayscale channel too large for the heap, the float counterpart of
+ * TiledImage: TILE_SIZE square tiles of floats in a memory-mapped scratch
+ * file, so tiled grayscale renders keep their precision until exported.
+ * <p>
+ * Tiles are written whole, one at a time or a band of tile rows at a time,
+ * which is safe from several threads as long as each writes different
+ * tiles, and read a band of rows at a time.
+ */
+public final class TiledChannel implements FloatRows {
+	public static final int TILE_SIZE = TiledImage.TILE_SIZE;
+	private static final int TILE_FLOATS = TILE_SIZE * TILE_SIZE;
+	private static final int TILES_PER_CHUNK = (1 << 30) / (TILE_FLOATS * 4);
+
+	private final int width, height, tilesX, tilesY;
+	private final FloatBuffer[] chunks;
+
+	/**
+	 * Creates a channel of zeros backed by a new scratch file, like TiledImage.
+	 * @throws java.io.UncheckedIOException if the scratch file cannot be created
+	 */
+	public TiledChannel(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		ByteBuffer[] mapped = TiledImage.mapScratch(tilesX * tilesY, TILE_FLOATS * 4, TILES_PER_CHUNK);
+		chunks = new FloatBuffer[mapped.length];
+		for (int c = 0; c < chunks.length; c++) {
+			chunks[c] = mapped[c].asFloatBuffer();
+		}
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	public int getTilesX() {
+		return tilesX;
+	}
+
+	public int getTilesY() {
+		return tilesY;
+	}
+
+	/**
+	 * Replaces a tile with src, row-major with a stride of TILE_SIZE.
+	 */
+	public void writeTile(int tx, int ty, float[] src) {
+		int index = ty * tilesX + tx;
+		chunks[index / TILES_PER_CHUNK].put((index % TILES_PER_CHUNK) * TILE_FLOATS, src, 0, TILE_FLOATS);
+	}
+
+	/**
+	 * Replaces a band of whole rows with src, row-major with a stride of
+	 * getWidth(). As for TiledImage.writeRows(), the band must cover whole
+	 * tiles, and bands that cover different tiles may be written from
+	 * different threads.
+	 */
+	public void writeRows(int y0, int rows, float[] src) {
+		if (y0 % TILE_SIZE != 0 || (rows % TILE_SIZE != 0 && y0 + rows != height)) {
+			throw new IllegalArgumentException("Rows " + y0 + " to " + (y0 + rows) + " do not cover whole tiles");
+		}
+		float[] tile = new float[TILE_FLOATS];
+		for (int ty = y0 / TILE_SIZE; ty * TILE_SIZE < y0 + rows; ty++) {
+			int h = Math.min(TILE_SIZE, height - ty * TILE_SIZE);
+			for (int tx = 0; tx < tilesX; tx++) {
+				int x0 = tx * TILE_SIZE;
+				int w = Math.min(TILE_SIZE, width - x0);
+				for (int y = 0; y < h; y++) {
+					System.arraycopy(src, (ty * TILE_SIZE + y - y0) * width + x0, tile, y * TILE_SIZE, w);
+				}
+				writeTile(tx, ty, tile);
+			}
+		}
+	}
+
+	@Override
+	public void readRows(int y0, int rows, float[] dst) {
+		int y1 = Math.min(height, y0 + rows);
+		for (int ty = y0 / TILE_SIZE; ty * TILE_SIZE < y1; ty++) {
+			int from = Math.max(y0, ty * TILE_SIZE), to = Math.min(y1, (ty + 1) * TILE_SIZE);
+			for (int tx = 0; tx < tilesX; tx++) {
+				int index = ty * tilesX + tx;
+				int x0 = tx * TILE_SIZE;
+				int w = Math.min(TILE_SIZE, width - x0);
+				FloatBuffer chunk = chunks[index / TILES_PER_CHUNK];
+				int base = (index % TILES_PER_CHUNK) * TILE_FLOATS;
+				for (int y = from; y < to; y++) {
+					chunk.get(base + (y - ty * TILE_SIZE) * TILE_SIZE, dst, (y - y0) * width + x0, w);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the values quantized to opaque gray tiles, as FloatChannel.toImage() would
+	 */
+	public TiledImage toTiledImage() {
+		TiledImage dst = new TiledImage(width, height);
+		float[] band = new float[width * TILE_SIZE];
+		int[] pixels = new int[width * TILE_SIZE];
+		for (int y0 = 0; y0 < height; y0 += TILE_SIZE) {
+			int rows = Math.min(TILE_SIZE, height - y0);
+			readRows(y0, rows, band);
+			for (int i = 0, n = rows * width; i < n; i++) {
+				int gray = FloatChannel.toByte(band[i]);
+				pixels[i] = 0xFF000000 | (gray << 16) | (gray << 8) | gray;
+			}
+			dst.writeRows(y0, rows, pixels);
+		}
+		return dst;
+	}
+
+	/**
+	 * @return the whole channel on the heap; only for small channels and fallbacks
+	 */
+	public FloatChannel toChannel() {
+		FloatChannel c = new FloatChannel(width, height);
+		for (int y0 = 0; y0 < height; y0 += TILE_SIZE) {
+			int rows = Math.min(TILE_SIZE, height - y0);
+			float[] band = new float[width * rows];
+			readRows(y0, rows, band);
+			System.arraycopy(band, 0, c.getData(), y0 * width, band.length);
+		}
+		return c;
+	}
+
+	/**
+	 * @return a copy on the heap shrunk by an integer factor, with the same
+	 *         arithmetic as FloatChannel.downsample(); read factor rows at a time
+	 */
+	public FloatChannel downsample(int factor) {
+		int w = width / factor, h = height / factor;
+		FloatChannel c = new FloatChannel(w, h);
+		float[] rows = new float[width * factor];
+		float inv = 1f / (factor * factor);
+		for (int y = 0; y < h; y++) {
+			readRows(y * factor, factor, rows);
+			for (int x = 0; x < w; x++) {
+				float sum = 0;
+				for (int dy = 0; dy < factor; dy++) {
+					int o = dy * width + x * factor;
+					for (int dx = 0; dx < factor; dx++) {
+						sum += rows[o + dx];
+					}
+				}
+				c.getData()[y * w + x] = sum * inv;
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * @return a hash of the values, hashed band by band
+	 */
+	public long contentHash() {
+		long h = 0;
+		float[] band = new float[width * TILE_SIZE];
+		for (int y0 = 0; y0 < height; y0 += TILE_SIZE) {
+			int rows = Math.min(TILE_SIZE, height - y0);
+			readRows(y0, rows, band);
+			h = h * 31 + ContentHash.ofFloats(band, width, rows);
+		}
+		return h;
+	}
+}
@@ -0,0 +1,338 @@
+package com.beder.texture.render;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.beder.texture.cache.ContentHash;
+
+/**
+ * An ARGB image too large for the heap, stored as TILE_SIZE square tiles in a
+ * memory-mapped scratch file. The file is deleted as soon as it is mapped,
+ * so its space is returned once the image is garbage collected.
+ * <p>
+ * Tiles can be read and written whole, which is safe from several threads as
+ * long as each writes different tiles. Random-access writers, such as a
+ * sprite blit, acquire() tiles instead: a bounded number are kept on the heap
+ * and written back to the file when evicted or on flush(). acquire() and
+ * flush() are for one thread at a time.
+ */
+public final class TiledImage implements IntRows {
+	public static final int TILE_SIZE = 256;
+	private static final int TILE_INTS = TILE_SIZE * TILE_SIZE;
+	private static final int TILES_PER_CHUNK = (1 << 30) / (TILE_INTS * 4);
+	private static final int DEFAULT_RESIDENT = 64;
+
+	private final int width, height, tilesX, tilesY;
+	private final IntBuffer[] chunks;
+	private final int maxResident;
+	private final LinkedHashMap<Integer, int[]> resident = new LinkedHashMap<Integer, int[]>(16, 0.75f, true);
+
+	/**
+	 * Creates a transparent black image backed by a new scratch file in
+	 * textures.scratch.dir, or the temp directory by default.
+	 * @throws UncheckedIOException if the scratch file cannot be created
+	 */
+	public TiledImage(int width, int height) {
+		this(width, height, DEFAULT_RESIDENT);
+	}
+
+	/**
+	 * @param maxResident how many acquired tiles may be held on the heap
+	 */
+	public TiledImage(int width, int height, int maxResident) {
+		this.width = width;
+		this.height = height;
+		this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		this.maxResident = Math.max(1, maxResident);
+		ByteBuffer[] mapped = mapScratch(tilesX * tilesY, TILE_INTS * 4, TILES_PER_CHUNK);
+		chunks = new IntBuffer[mapped.length];
+		for (int c = 0; c < chunks.length; c++) {
+			chunks[c] = mapped[c].asIntBuffer();
+		}
+	}
+
+	/**
+	 * Maps a new scratch file of tiles in chunks of at most tilesPerChunk,
+	 * in native byte order.
+	 * @throws UncheckedIOException if the scratch file cannot be created
+	 */
+	static ByteBuffer[] mapScratch(int tiles, int tileBytes, int tilesPerChunk) {
+		ByteBuffer[] chunks = new ByteBuffer[(tiles + tilesPerChunk - 1) / tilesPerChunk];
+		try {
+			Path dir = new File(System.getProperty("textures.scratch.dir", System.getProperty("java.io.tmpdir"))).toPath();
+			Path file = Files.createTempFile(dir, "tiles", ".raw");
+			try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE)) {
+				for (int c = 0; c < chunks.length; c++) {
+					long first = (long) c * tilesPerChunk;
+					long count = Math.min(tilesPerChunk, tiles - first);
+					chunks[c] = fc.map(FileChannel.MapMode.READ_WRITE, first * tileBytes, count * tileBytes)
+							.order(ByteOrder.nativeOrder());
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot create tile scratch file", e);
+		}
+		return chunks;
+	}
+
+	/**
+	 * @return true if images of this size should be tiled rather than held
+	 *         on the heap; from textures.tiled.min, 8192 by default
+	 */
+	public static boolean shouldTile(int res) {
+		return res >= Integer.getInteger("textures.tiled.min", 8192);
+	}
+
+	public static TiledImage fromImage(BufferedImage img) {
+		IntRaster src = IntRaster.read(img);
+		TiledImage t = new TiledImage(src.getWidth(), src.getHeight());
+		int[] tile = new int[TILE_INTS];
+		for (int ty = 0; ty < t.tilesY; ty++) {
+			for (int tx = 0; tx < t.tilesX; tx++) {
+				int x0 = tx * TILE_SIZE, y0 = ty * TILE_SIZE;
+				int w = Math.min(TILE_SIZE, t.width - x0), h = Math.min(TILE_SIZE, t.height - y0);
+				for (int y = 0; y < h; y++) {
+					System.arraycopy(src.getData(), src.rowOffset(y0 + y) + x0, tile, y * TILE_SIZE, w);
+				}
+				t.writeTile(tx, ty, tile);
+			}
+		}
+		return t;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	public int getTilesX() {
+		return tilesX;
+	}
+
+	public int getTilesY() {
+		return tilesY;
+	}
+
+	/**
+	 * Copies a tile into dst, row-major with a stride of TILE_SIZE. Parts of
+	 * edge tiles outside the image are undefined.
+	 */
+	public void readTile(int tx, int ty, int[] dst) {
+		int index = ty * tilesX + tx;
+		synchronized (resident) {
+			int[] tile = resident.get(index);
+			if (tile != null) {
+				System.arraycopy(tile, 0, dst, 0, TILE_INTS);
+				return;
+			}
+		}
+		chunks[index / TILES_PER_CHUNK].get((index % TILES_PER_CHUNK) * TILE_INTS, dst, 0, TILE_INTS);
+	}
+
+	/**
+	 * Replaces a tile with src, row-major with a stride of TILE_SIZE.
+	 */
+	public void writeTile(int tx, int ty, int[] src) {
+		int index = ty * tilesX + tx;
+		synchronized (resident) {
+			resident.remove(index);
+		}
+		chunks[index / TILES_PER_CHUNK].put((index % TILES_PER_CHUNK) * TILE_INTS, src, 0, TILE_INTS);
+	}
+
+	/**
+	 * @return the heap copy of a tile, loaded if needed, which the caller may
+	 *         modify; it is written back when evicted or on flush(), so it
+	 *         must not be used after the next acquire()
+	 */
+	public int[] acquire(int tx, int ty) {
+		int index = ty * tilesX + tx;
+		synchronized (resident) {
+			int[] tile = resident.get(index);
+			if (tile == null) {
+				tile = new int[TILE_INTS];
+				chunks[index / TILES_PER_CHUNK].get((index % TILES_PER_CHUNK) * TILE_INTS, tile, 0, TILE_INTS);
+				Iterator<Map.Entry<Integer, int[]>> it = resident.entrySet().iterator();
+				while (resident.size() >= maxResident && it.hasNext()) {
+					Map.Entry<Integer, int[]> e = it.next();
+					store(e.getKey(), e.getValue());
+					it.remove();
+				}
+				resident.put(index, tile);
+			}
+			return tile;
+		}
+	}
+
+	/**
+	 * Writes every acquired tile back to the file and drops it from the heap.
+	 */
+	public void flush() {
+		synchronized (resident) {
+			for (Map.Entry<Integer, int[]> e : resident.entrySet()) {
+				store(e.getKey(), e.getValue());
+			}
+			resident.clear();
+		}
+	}
+
+	private void store(int index, int[] tile) {
+		chunks[index / TILES_PER_CHUNK].put((index % TILES_PER_CHUNK) * TILE_INTS, tile, 0, TILE_INTS);
+	}
+
+	/**
+	 * Sets every pixel to one colour.
+	 */
+	public void fill(int argb) {
+		int[] tile = new int[TILE_INTS];
+		Arrays.fill(tile, argb);
+		for (int ty = 0; ty < tilesY; ty++) {
+			for (int tx = 0; tx < tilesX; tx++) {
+				writeTile(tx, ty, tile);
+			}
+		}
+	}
+
+	/**
+	 * Copies a raster into the image with its top-left corner at (x0, y0),
+	 * clipping it to the image. Goes through acquire(), so the same
+	 * one-thread-at-a-time rule applies.
+	 */
+	public void paste(IntRaster src, int x0, int y0) {
+		int w = Math.min(src.getWidth(), width - x0), h = Math.min(src.getHeight(), height - y0);
+		for (int y = 0; y < h; y++) {
+			int cy = y0 + y;
+			int in = src.rowOffset(y);
+			for (int x = 0; x < w;) {
+				int cx = x0 + x;
+				int run = Math.min(w - x, TILE_SIZE - cx % TILE_SIZE);
+				int[] tile = acquire(cx / TILE_SIZE, cy / TILE_SIZE);
+				System.arraycopy(src.getData(), in + x, tile, (cy % TILE_SIZE) * TILE_SIZE + cx % TILE_SIZE, run);
+				x += run;
+			}
+		}
+	}
+
+	/**
+	 * Copies a band of whole rows into dst, row-major with a stride of
+	 * getWidth(). Only the rows asked for are copied out of each tile, so
+	 * reading a few rows at a time is cheap too.
+	 */
+	@Override
+	public void readRows(int y0, int rows, int[] dst) {
+		int y1 = Math.min(height, y0 + rows);
+		for (int ty = y0 / TILE_SIZE; ty * TILE_SIZE < y1; ty++) {
+			int from = Math.max(y0, ty * TILE_SIZE), to = Math.min(y1, (ty + 1) * TILE_SIZE);
+			for (int tx = 0; tx < tilesX; tx++) {
+				int index = ty * tilesX + tx;
+				int x0 = tx * TILE_SIZE;
+				int w = Math.min(TILE_SIZE, width - x0);
+				synchronized (resident) {
+					int[] tile = resident.get(index);
+					if (tile != null) {
+						for (int y = from; y < to; y++) {
+							System.arraycopy(tile, (y - ty * TILE_SIZE) * TILE_SIZE, dst, (y - y0) * width + x0, w);
+						}
+						continue;
+					}
+				}
+				IntBuffer chunk = chunks[index / TILES_PER_CHUNK];
+				int base = (index % TILES_PER_CHUNK) * TILE_INTS;
+				for (int y = from; y < to; y++) {
+					chunk.get(base + (y - ty * TILE_SIZE) * TILE_SIZE, dst, (y - y0) * width + x0, w);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces a band of whole rows with src, row-major with a stride of
+	 * getWidth(). The band must start on a tile boundary and end on one or at
+	 * the bottom, so it covers whole tiles; bands that cover different tiles
+	 * may be written from different threads.
+	 */
+	public void writeRows(int y0, int rows, int[] src) {
+		if (y0 % TILE_SIZE != 0 || (rows % TILE_SIZE != 0 && y0 + rows != height)) {
+			throw new IllegalArgumentException("Rows " + y0 + " to " + (y0 + rows) + " do not cover whole tiles");
+		}
+		int[] tile = new int[TILE_INTS];
+		for (int ty = y0 / TILE_SIZE; ty * TILE_SIZE < y0 + rows; ty++) {
+			int h = Math.min(TILE_SIZE, height - ty * TILE_SIZE);
+			for (int tx = 0; tx < tilesX; tx++) {
+				int x0 = tx * TILE_SIZE;
+				int w = Math.min(TILE_SIZE, width - x0);
+				for (int y = 0; y < h; y++) {
+					System.arraycopy(src, (ty * TILE_SIZE + y - y0) * width + x0, tile, y * TILE_SIZE, w);
+				}
+				writeTile(tx, ty, tile);
+			}
+		}
+	}
+
+	/**
+	 * @return a copy on the heap shrunk by an integer factor, each pixel the
+	 *         rounded mean of a factor x factor block, as for a heap image;
+	 *         read factor rows at a time, so the image is never held whole
+	 */
+	public BufferedImage downsample(int factor) {
+		int w = width / factor, h = height / factor;
+		IntRaster dst = IntRaster.create(w, h);
+		int[] rows = new int[width * factor];
+		for (int y = 0; y < h; y++) {
+			readRows(y * factor, factor, rows);
+			IntRaster.boxRow(rows, 0, width, factor, dst.getData(), dst.rowOffset(y), w);
+		}
+		return dst.getImage();
+	}
+
+	/**
+	 * @return the whole image on the heap, which defeats the purpose for the
+	 *         sizes this class is meant for; only for small images and fallbacks
+	 */
+	public BufferedImage toImage() {
+		IntRaster dst = IntRaster.create(width, height);
+		int[] band = new int[width * TILE_SIZE];
+		for (int y0 = 0; y0 < height; y0 += TILE_SIZE) {
+			int rows = Math.min(TILE_SIZE, height - y0);
+			readRows(y0, rows, band);
+			for (int y = 0; y < rows; y++) {
+				System.arraycopy(band, y * width, dst.getData(), dst.rowOffset(y0 + y), width);
+			}
+		}
+		return dst.getImage();
+	}
+
+	/**
+	 * @return a hash of the pixels, hashed band by band
+	 */
+	public long contentHash() {
+		long h = 0;
+		int[] band = new int[width * TILE_SIZE];
+		for (int y0 = 0; y0 < height; y0 += TILE_SIZE) {
+			int rows = Math.min(TILE_SIZE, height - y0);
+			readRows(y0, rows, band);
+			h = h * 31 + ContentHash.ofArgb(band, 0, width, width, rows);
+		}
+		return h;
+	}
+}
@@ -0,0 +1,33 @@
+package com.beder.texture.render;
+
+/**
+ * Whether kernels may use the incubating Vector API. It is only usable if
+ * the JVM was started with --add-modules jdk.incubator.vector; without it,
+ * or with textures.vector=false, kernels take their scalar paths, which give
+ * the same results.
+ * <p>
+ * Kernel classes that use the API must only be loaded once this says it is
+ * available, so keep them apart from the classes that call them.
+ */
+public final class VectorSupport {
+	private static final boolean AVAILABLE = probe();
+
+	private VectorSupport() {
+	}
+
+	public static boolean isAvailable() {
+		return AVAILABLE;
+	}
+
+	private static boolean probe() {
+		if (!Boolean.parseBoolean(System.getProperty("textures.vector", "true"))) {
+			return false;
+		}
+		try {
+			Class.forName("jdk.incubator.vector.IntVector");
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+}
@@ -1,33 +1,44 @@
 package com.beder.texture.scatter;
 
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.util.Random;
 
 import com.beder.texture.ImagePair;
 import com.beder.texture.Operation;
 import com.beder.texture.Parameters;
-import com.beder.texture.Redrawable;
+import com.beder.texture.RenderContext;
+import com.beder.texture.profile.ScatterEvent;
+import com.beder.texture.render.IntRaster;
+import com.beder.texture.render.TiledImage;
 
 public class ScatterOperation extends Operation {
-
-    public ScatterOperation(Redrawable redraw) {
-        super(redraw);
-        addParameter("Quantity", CONTROL_TYPE.INT, 10);
-        addParameter("Size", CONTROL_TYPE.INT, 64);
-        addParameter("StdDev", CONTROL_TYPE.DOUBLE, 10.0);
-        addParameter("Seed", CONTROL_TYPE.SEED, new Random().nextLong());
+    private final int quantitySlot, sizeSlot, stdDevSlot, seedSlot;
+
+    public ScatterOperation() {
+        super();
+        quantitySlot = addParameter("Quantity", CONTROL_TYPE.INT, 10);
+        sizeSlot     = addParameter("Size", CONTROL_TYPE.INT, 64);
+        stdDevSlot   = addParameter("StdDev", CONTROL_TYPE.DOUBLE, 10.0);
+        seedSlot     = addParameter("Seed", CONTROL_TYPE.SEED, new Random().nextLong());
     }
 
     @Override
-    public ImagePair executeOperation(ImagePair input, Parameters par) {
+    public ImagePair executeOperation(RenderContext ctx, ImagePair input, Parameters par) {
+        ScatterEvent event = new ScatterEvent();
+        event.start(getTitle(), ctx.getRes());
+        try {
+            return scatter(ctx, input, par);
+        } finally {
+            event.finish();
+        }
+    }
+
+    private ImagePair scatter(RenderContext ctx, ImagePair input, Parameters par) {
         // 1. Read parameters
-        int quantity  = (int) par.get("Quantity", 10);
-        int meanSize  = (int) par.get("Size",     64);
-        double stdDev =      par.get("StdDev",   10.0);
-        long seed     =   (long) par.get("Seed",    System.currentTimeMillis());
+        int quantity  = par.getInt(quantitySlot);
+        int meanSize  = par.getInt(sizeSlot);
+        double stdDev = par.get(stdDevSlot);
+        long seed     = par.getLong(seedSlot);
         Random rnd    = new Random(seed);
 
         // 2. Fetch sprites
@@ -37,56 +48,164 @@ public class ScatterOperation extends Operation {
             return input;
         }
 
-        int res = getRedraw().getRes();
-        BufferedImage canvas = new BufferedImage(res, res, BufferedImage.TYPE_INT_ARGB);
-        input.left = canvas;
+        int res = ctx.getRes();
+        // Past the tiling threshold sprites are pasted into tiles a few at a time
+        TiledImage tiled = TiledImage.shouldTile(res) ? new TiledImage(res, res) : null;
+        IntRaster canvas = tiled == null ? IntRaster.create(res, res) : null;
 
         for (int i = 0; i < quantity; i++) {
+            ctx.checkCancelled();
+            ctx.reportProgress((double) i / quantity);
+
             // 3. Weighted random sprite selection
             int idx = repo.getRandomIndex(rnd);
             BufferedImage sprite = repo.getSprite(idx);
 
             // 4. Sample size (Gaussian) and rotation angle
-            int size = Math.max(1, (int)(rnd.nextGaussian() * stdDev + meanSize));
+            // Size and StdDev are in reference pixels
+            int size = Math.max(1, (int)((rnd.nextGaussian() * stdDev + meanSize) * res / REFERENCE_RES));
             double angle = rnd.nextDouble() * Math.PI * 2;
 
-            // 5. Build AffineTransform: scale → rotate around center
-            double scaleX = (double) size / sprite.getWidth();
-            double scaleY = (double) size / sprite.getHeight();
-            AffineTransform tx = new AffineTransform();
-            tx.translate(size / 2.0, size / 2.0);
-            tx.rotate(angle);
-            tx.scale(scaleX, scaleY);
-            tx.translate(-sprite.getWidth() / 2.0, -sprite.getHeight() / 2.0);
-
-            // 6. Render transformed sprite into a temp image
-            BufferedImage transformed = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2 = transformed.createGraphics();
-            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g2.drawImage(sprite, tx, null);
-            g2.dispose();
+            // 5-6. Scale and rotate the sprite around its center into a temp image
+            IntRaster transformed = transform(IntRaster.read(sprite), size, angle);
 
             // 7. Choose a random placement
-            int x0 = rnd.nextInt(res);
-            int y0 = rnd.nextInt(res);
-
-            // 8. Paste with toroidal wrap: pixel‐by‐pixel
-            for (int y = 0; y < transformed.getHeight(); y++) {
-                for (int x = 0; x < transformed.getWidth(); x++) {
-                    int argb = transformed.getRGB(x, y);
-                    int alpha = (argb >>> 24) & 0xFF;
-                    if (alpha == 0) continue; // skip fully transparent
-                    int dx = (x0 + x) % res;
-                    if (dx < 0) dx += res;
-                    int dy = (y0 + y) % res;
-                    if (dy < 0) dy += res;
-                    canvas.setRGB(dx, dy, argb);
+            int x0 = (int) (rnd.nextDouble() * res);
+            int y0 = (int) (rnd.nextDouble() * res);
+
+            // 8. Paste with toroidal wrap
+            if (tiled != null) {
+                blitWrapped(transformed, tiled, x0, y0);
+            } else {
+                blitWrapped(transformed, canvas, x0, y0);
+            }
+        }
+
+        if (tiled != null) {
+            tiled.flush();
+            return input.withLeft(tiled);
+        }
+        return input.withLeft(canvas.getImage());
+    }
+
+    /**
+     * Scales a sprite to size x size and rotates it by angle around its
+     * center, sampling it bilinearly on premultiplied alpha, so transparent
+     * pixels do not darken the edges. This is plain double arithmetic rather
+     * than Java2D, whose interpolation differs between JDKs, so the same
+     * seed scatters the same pixels everywhere.
+     */
+    static IntRaster transform(IntRaster sprite, int size, double angle) {
+        int sw = sprite.getWidth(), sh = sprite.getHeight();
+        IntRaster out = IntRaster.create(size, size);
+        int[] dst = out.getData();
+        double cos = StrictMath.cos(angle), sin = StrictMath.sin(angle);
+        double scaleX = (double) sw / size, scaleY = (double) sh / size;
+        double c = size / 2.0;
+        for (int y = 0; y < size; y++) {
+            int o = out.rowOffset(y);
+            double dy = y + 0.5 - c;
+            for (int x = 0; x < size; x++) {
+                double dx = x + 0.5 - c;
+                // The inverse of the transform, from pixel centers to source pixel coordinates
+                double u = (cos * dx + sin * dy) * scaleX + sw / 2.0 - 0.5;
+                double v = (cos * dy - sin * dx) * scaleY + sh / 2.0 - 0.5;
+                dst[o + x] = sample(sprite, u, v);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return the sprite interpolated at (u, v) between its four nearest
+     *         pixels, those outside it being transparent
+     */
+    private static int sample(IntRaster sprite, double u, double v) {
+        int x0 = (int) Math.floor(u), y0 = (int) Math.floor(v);
+        if (x0 < -1 || y0 < -1 || x0 >= sprite.getWidth() || y0 >= sprite.getHeight()) {
+            return 0;
+        }
+        double fx = u - x0, fy = v - y0;
+        double a = 0, r = 0, g = 0, b = 0;
+        for (int k = 0; k < 4; k++) {
+            int sx = x0 + (k & 1), sy = y0 + (k >> 1);
+            if (sx < 0 || sy < 0 || sx >= sprite.getWidth() || sy >= sprite.getHeight()) {
+                continue;
+            }
+            double w = ((k & 1) == 0 ? 1 - fx : fx) * ((k >> 1) == 0 ? 1 - fy : fy);
+            int argb = sprite.get(sx, sy);
+            double pa = (argb >>> 24) * w;
+            a += pa;
+            r += ((argb >> 16) & 0xFF) * pa;
+            g += ((argb >> 8) & 0xFF) * pa;
+            b += (argb & 0xFF) * pa;
+        }
+        int alpha = (int) Math.round(a);
+        if (alpha == 0) {
+            return 0;
+        }
+        return alpha << 24 | channel(r / a) << 16 | channel(g / a) << 8 | channel(b / a);
+    }
+
+    private static int channel(double v) {
+        return Math.max(0, Math.min(255, (int) Math.round(v)));
+    }
+
+    /**
+     * Pastes every non-transparent pixel of the sprite onto the canvas with its
+     * top-left corner at (x0, y0), wrapping around the canvas edges. Each row is
+     * copied as at most a few straight runs instead of one modulo per pixel.
+     */
+    public static void blitWrapped(IntRaster sprite, IntRaster canvas, int x0, int y0) {
+        int resX = canvas.getWidth(), resY = canvas.getHeight();
+        int[] src = sprite.getData();
+        int[] dst = canvas.getData();
+        for (int y = 0; y < sprite.getHeight(); y++) {
+            int in = sprite.rowOffset(y);
+            int rowStart = canvas.rowOffset(Math.floorMod(y0 + y, resY));
+            int x = 0;
+            while (x < sprite.getWidth()) {
+                int dx = Math.floorMod(x0 + x, resX);
+                int run = Math.min(sprite.getWidth() - x, resX - dx);
+                int out = rowStart + dx;
+                for (int i = 0; i < run; i++) {
+                    int argb = src[in + x + i];
+                    if ((argb >>> 24) != 0) { // skip fully transparent
+                        dst[out + i] = argb;
+                    }
                 }
+                x += run;
             }
         }
+    }
 
-        return input;
+    /**
+     * Tiled form of blitWrapped(); runs are also split at tile edges, and the
+     * touched tiles stay resident until evicted or flushed.
+     */
+    public static void blitWrapped(IntRaster sprite, TiledImage canvas, int x0, int y0) {
+        final int ts = TiledImage.TILE_SIZE;
+        int resX = canvas.getWidth(), resY = canvas.getHeight();
+        int[] src = sprite.getData();
+        for (int y = 0; y < sprite.getHeight(); y++) {
+            int in = sprite.rowOffset(y);
+            int cy = Math.floorMod(y0 + y, resY);
+            int rowStart = (cy % ts) * ts;
+            int x = 0;
+            while (x < sprite.getWidth()) {
+                int dx = Math.floorMod(x0 + x, resX);
+                int run = Math.min(sprite.getWidth() - x, Math.min(resX - dx, ts - dx % ts));
+                int[] dst = canvas.acquire(dx / ts, cy / ts);
+                int out = rowStart + dx % ts;
+                for (int i = 0; i < run; i++) {
+                    int argb = src[in + x + i];
+                    if ((argb >>> 24) != 0) { // skip fully transparent
+                        dst[out + i] = argb;
+                    }
+                }
+                x += run;
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,390 @@
+package com.beder.texture.server;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.beder.texture.ImagePair;
+import com.beder.texture.RenderContext;
+import com.beder.texture.batch.BatchRenderer;
+import com.beder.texture.batch.StackDescription;
+import com.beder.texture.cache.RenderCache;
+import com.beder.texture.export.PngWriter;
+import com.beder.texture.render.IntRaster;
+import com.beder.texture.render.TiledImage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Renders stack descriptions over HTTP for tools that want textures without
+ * the GUI. Listens on the loopback address only.
+ * <pre>
+ * POST /render?format=png|raw&amp;side=left|right   body: a stack description
+ * GET  /metrics
+ * </pre>
+ * A render answers with a PNG, or with the raw pixels as RGBA bytes, row by
+ * row, sized by the X-Width and X-Height headers. The left side is the
+ * default. A malformed stack gets a 400, as does one whose res is above the
+ * server's maximum, or too large to answer as raw pixels.
+ * <p>
+ * Each request is handled on its own virtual thread, while the tile work of
+ * every render shares one bounded pool. A request identical to one still
+ * rendering waits for that render instead of starting another. The metrics
+ * are plain "name value" lines.
+ * <pre>
+ * RenderServer [-port N] [-threads N] [-maxres N] [-sprite FILE[:WEIGHT]]...
+ * </pre>
+ */
+public class RenderServer {
+	public static final int DEFAULT_PORT = 8765;
+	public static final int DEFAULT_MAX_RES = 8192;
+	/** The largest array the JVM will allocate, and so the largest raw answer. */
+	private static final long MAX_RAW_BYTES = Integer.MAX_VALUE - 8;
+	/** How many recent latencies the percentiles are taken over. */
+	private static final int LATENCY_WINDOW = 1024;
+
+	private final HttpServer http;
+	private final ExecutorService handlers;
+	private final ForkJoinPool pool;
+	private final RenderCache cache;
+	private final int maxRes;
+	private final ConcurrentHashMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<String, CompletableFuture<byte[]>>();
+
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private long latencyCount;
+
+	/**
+	 * @param port the port to listen on, or 0 for any free one
+	 * @param threads the size of the pool that tile work runs on
+	 */
+	public RenderServer(int port, int threads) throws IOException {
+		this(port, threads, DEFAULT_MAX_RES);
+	}
+
+	/**
+	 * @param port the port to listen on, or 0 for any free one
+	 * @param threads the size of the pool that tile work runs on
+	 * @param maxRes the largest res a request may ask for
+	 */
+	public RenderServer(int port, int threads, int maxRes) throws IOException {
+		this.maxRes = maxRes;
+		pool = new ForkJoinPool(threads);
+		cache = RenderCache.getDefault();
+		handlers = Executors.newVirtualThreadPerTaskExecutor();
+		http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		http.setExecutor(handlers);
+		http.createContext("/render", this::handleRender);
+		http.createContext("/metrics", this::handleMetrics);
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		int port = DEFAULT_PORT;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int maxRes = DEFAULT_MAX_RES;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "-port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "-threads":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				case "-maxres":
+					maxRes = Integer.parseInt(args[++i]);
+					break;
+				case "-sprite":
+					BatchRenderer.loadSprite(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: RenderServer [-port N] [-threads N] [-maxres N] [-sprite FILE[:WEIGHT]]...");
+			System.exit(2);
+		}
+
+		try {
+			RenderServer server = new RenderServer(port, threads, maxRes);
+			server.start();
+			System.out.println("Rendering on http://localhost:" + server.getPort() + "/render");
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	public void start() {
+		http.start();
+	}
+
+	/**
+	 * Stops accepting requests, lets those being handled finish for up to the
+	 * given number of seconds, and shuts the pool down.
+	 */
+	public void stop(int delaySeconds) {
+		http.stop(delaySeconds);
+		handlers.shutdown();
+		pool.shutdown();
+	}
+
+	public int getPort() {
+		return http.getAddress().getPort();
+	}
+
+	private void handleRender(HttpExchange ex) throws IOException {
+		long start = System.nanoTime();
+		active.incrementAndGet();
+		requests.incrementAndGet();
+		try {
+			if (!ex.getRequestMethod().equals("POST")) {
+				reply(ex, 405, "text/plain", "POST a stack description\n".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			Map<String, String> query = query(ex.getRequestURI());
+			String format = query.getOrDefault("format", "png");
+			String side = query.getOrDefault("side", "left");
+			if (!(format.equals("png") || format.equals("raw")) || !(side.equals("left") || side.equals("right"))) {
+				reply(ex, 400, "text/plain", "format must be png or raw, side left or right\n".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+
+			StackDescription desc;
+			try {
+				desc = StackDescription.parse(new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				reply(ex, 400, "text/plain", (e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			int res = desc.getRes();
+			if (res > maxRes) {
+				reply(ex, 400, "text/plain", ("res " + res + " is above the maximum of " + maxRes + "\n").getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			if (format.equals("raw") && 4L * res * res > MAX_RAW_BYTES) {
+				reply(ex, 400, "text/plain", ("res " + res + " is too large for raw pixels; ask for png\n").getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+
+			byte[] body;
+			try {
+				body = coalesce(key(desc, format, side), () -> encode(desc, format, side.equals("left")));
+			} catch (CompletionException e) {
+				failures.incrementAndGet();
+				Throwable cause = e.getCause() != null ? e.getCause() : e;
+				reply(ex, 500, "text/plain", (cause + "\n").getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			if (format.equals("raw")) {
+				ex.getResponseHeaders().set("X-Width", Integer.toString(desc.getRes()));
+				ex.getResponseHeaders().set("X-Height", Integer.toString(desc.getRes()));
+			}
+			reply(ex, 200, format.equals("png") ? "image/png" : "application/octet-stream", body);
+			recordLatency(System.nanoTime() - start);
+		} finally {
+			active.decrementAndGet();
+			ex.close();
+		}
+	}
+
+	private interface Encoder {
+		byte[] encode() throws IOException;
+	}
+
+	/**
+	 * Runs the encoder, unless a request with the same key is already running
+	 * it, in which case this waits for and shares its result. Whatever the
+	 * encoder throws, Errors included, completes the shared future, so no
+	 * waiting request is left hanging.
+	 * @throws CompletionException if the render failed
+	 */
+	private byte[] coalesce(String key, Encoder encoder) {
+		CompletableFuture<byte[]> mine = new CompletableFuture<byte[]>();
+		CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, mine);
+		if (running != null) {
+			coalesced.incrementAndGet();
+			return running.join();
+		}
+		try {
+			mine.complete(encoder.encode());
+		} catch (Throwable e) {
+			mine.completeExceptionally(e);
+		} finally {
+			inFlight.remove(key, mine);
+		}
+		return mine.join();
+	}
+
+	/**
+	 * @return everything that determines the response: the stack as it parsed,
+	 *         every parameter included, plus the format and side
+	 */
+	private static String key(StackDescription desc, String format, String side) {
+		StringBuilder sb = new StringBuilder().append(format).append(' ').append(side).append('\n');
+		sb.append("res ").append(desc.getRes()).append('\n');
+		for (StackDescription.LayerSpec spec : desc.getLayers()) {
+			sb.append(StackDescription.formatLayer(spec.getOperation(), spec.getParam())).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private byte[] encode(StackDescription desc, String format, boolean left) throws IOException {
+		ImagePair pair = desc.render(new RenderContext() {
+			@Override
+			public int getRes() {
+				return desc.getRes();
+			}
+
+			@Override
+			public ForkJoinPool getPool() {
+				return pool;
+			}
+
+			@Override
+			public RenderCache getCache() {
+				return cache;
+			}
+		});
+		try {
+			TiledImage tiled = left ? pair.getLeftTiled() : pair.getRightTiled();
+			if (format.equals("raw")) {
+				return tiled != null ? rgba(tiled) : rgba(left ? pair.getLeft() : pair.getRight());
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			if (tiled != null) {
+				PngWriter.write(tiled, "render", out);
+			} else {
+				PngWriter.write(left ? pair.getLeft() : pair.getRight(), "render", out);
+			}
+			return out.toByteArray();
+		} finally {
+			pair.release();
+		}
+	}
+
+	private static byte[] rgba(BufferedImage img) {
+		IntRaster src = IntRaster.read(img);
+		int w = src.getWidth(), h = src.getHeight();
+		byte[] out = new byte[Math.multiplyExact(4, Math.multiplyExact(w, h))];
+		for (int y = 0, o = 0; y < h; y++) {
+			int in = src.rowOffset(y);
+			for (int x = 0; x < w; x++, o += 4) {
+				int argb = src.getData()[in + x];
+				out[o] = (byte) (argb >> 16);
+				out[o + 1] = (byte) (argb >> 8);
+				out[o + 2] = (byte) argb;
+				out[o + 3] = (byte) (argb >>> 24);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Converts a tile row at a time, so only the bytes are ever whole.
+	 */
+	private static byte[] rgba(TiledImage img) {
+		int w = img.getWidth(), h = img.getHeight();
+		byte[] out = new byte[Math.multiplyExact(4, Math.multiplyExact(w, h))];
+		int[] band = new int[w * Math.min(h, TiledImage.TILE_SIZE)];
+		for (int y0 = 0, o = 0; y0 < h; y0 += TiledImage.TILE_SIZE) {
+			int rows = Math.min(TiledImage.TILE_SIZE, h - y0);
+			img.readRows(y0, rows, band);
+			for (int i = 0, n = rows * w; i < n; i++, o += 4) {
+				int argb = band[i];
+				out[o] = (byte) (argb >> 16);
+				out[o + 1] = (byte) (argb >> 8);
+				out[o + 2] = (byte) argb;
+				out[o + 3] = (byte) (argb >>> 24);
+			}
+		}
+		return out;
+	}
+
+	private void handleMetrics(HttpExchange ex) throws IOException {
+		try {
+			StringBuilder sb = new StringBuilder();
+			metric(sb, "requests_total", requests.get());
+			metric(sb, "requests_active", active.get());
+			metric(sb, "requests_coalesced", coalesced.get());
+			metric(sb, "requests_failed", failures.get());
+			metric(sb, "pool_queued_tasks", pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+			metric(sb, "pool_active_threads", pool.getActiveThreadCount());
+
+			long[] window = latencyWindow();
+			Arrays.sort(window);
+			for (double q : new double[] { 0.5, 0.9, 0.99 }) {
+				double ms = window.length == 0 ? 0 : window[(int) Math.min(window.length - 1, q * window.length)] / 1e6;
+				sb.append("latency_ms{quantile=\"").append(q).append("\"} ").append(String.format("%.3f", ms)).append('\n');
+			}
+
+			if (cache != null) {
+				long hits = cache.getHits(), misses = cache.getMisses();
+				metric(sb, "cache_hits", hits);
+				metric(sb, "cache_misses", misses);
+				sb.append("cache_hit_rate ").append(String.format("%.4f", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses))).append('\n');
+			}
+			reply(ex, 200, "text/plain", sb.toString().getBytes(StandardCharsets.UTF_8));
+		} finally {
+			ex.close();
+		}
+	}
+
+	private static void metric(StringBuilder sb, String name, long value) {
+		sb.append(name).append(' ').append(value).append('\n');
+	}
+
+	private synchronized void recordLatency(long nanos) {
+		latencies[(int) (latencyCount++ % LATENCY_WINDOW)] = nanos;
+	}
+
+	private synchronized long[] latencyWindow() {
+		return Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_WINDOW));
+	}
+
+	private static void reply(HttpExchange ex, int status, String type, byte[] body) throws IOException {
+		ex.getResponseHeaders().set("Content-Type", type);
+		ex.sendResponseHeaders(status, body.length);
+		try (OutputStream out = ex.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static Map<String, String> query(URI uri) {
+		Map<String, String> params = new HashMap<String, String>();
+		String q = uri.getQuery();
+		if (q != null) {
+			for (String pair : q.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq > 0) {
+					params.put(pair.substring(0, eq), pair.substring(eq + 1));
+				}
+			}
+		}
+		return params;
+	}
+}
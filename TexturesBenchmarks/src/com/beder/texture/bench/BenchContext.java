@@ -0,0 +1,25 @@
+package com.beder.texture.bench;
+
+import com.beder.texture.RenderContext;
+import com.beder.texture.cache.RenderCache;
+
+/**
+ * A render context without the disk cache, so every benchmark call renders.
+ */
+final class BenchContext implements RenderContext {
+	private final int res;
+
+	BenchContext(int res) {
+		this.res = res;
+	}
+
+	@Override
+	public int getRes() {
+		return res;
+	}
+
+	@Override
+	public RenderCache getCache() {
+		return null;
+	}
+}
@@ -0,0 +1,56 @@
+package com.beder.texture.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, but writes the
+ * results as JSON to results/&lt;commit&gt;.json unless -rf/-rff say otherwise,
+ * so runs on different commits can be compared side by side. The commit is
+ * the current git HEAD, or a timestamp outside a git checkout.
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		ChainedOptionsBuilder opts = new OptionsBuilder().parent(cmd);
+		if (!cmd.getResultFormat().hasValue()) {
+			opts.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cmd.getResult().hasValue()) {
+			File dir = new File("results");
+			dir.mkdirs();
+			opts.result(new File(dir, revision() + ".json").getPath());
+		}
+		new Runner(opts.build()).run();
+	}
+
+	private static String revision() {
+		try {
+			Process git = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").redirectErrorStream(true).start();
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(git.getInputStream()))) {
+				String line = in.readLine();
+				if (git.waitFor() == 0 && line != null && !line.isEmpty()) {
+					return line.trim();
+				}
+			}
+		} catch (IOException e) {
+			// Not a git checkout, or no git; fall through
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+	}
+}
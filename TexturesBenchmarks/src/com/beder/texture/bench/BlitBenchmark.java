@@ -0,0 +1,53 @@
+package com.beder.texture.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.beder.texture.render.IntRaster;
+import com.beder.texture.scatter.ScatterOperation;
+
+/**
+ * Times one wrapped sprite blit onto a 1024 canvas. Placements cycle through
+ * positions that cross the right and bottom edges as well as ones that don't.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class BlitBenchmark {
+	private static final int CANVAS = 1024;
+
+	@Param({ "32", "128", "512" })
+	public int spriteSize;
+
+	private IntRaster sprite;
+	private IntRaster canvas;
+	private int next;
+
+	@Setup
+	public void setup() {
+		sprite = IntRaster.of(PipelineBenchmark.disc(spriteSize));
+		canvas = IntRaster.create(CANVAS, CANVAS);
+	}
+
+	@Benchmark
+	public IntRaster blitWrapped() {
+		int x = (next * 397) % CANVAS, y = (next * 211) % CANVAS;
+		next++;
+		ScatterOperation.blitWrapped(sprite, canvas, x, y);
+		return canvas;
+	}
+}
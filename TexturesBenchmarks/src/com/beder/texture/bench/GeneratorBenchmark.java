@@ -0,0 +1,84 @@
+package com.beder.texture.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.beder.texture.ImagePair;
+import com.beder.texture.Parameters;
+import com.beder.texture.RenderContext;
+import com.beder.texture.batch.StackDescription;
+import com.beder.texture.noise.NoiseOperation;
+
+/**
+ * Times generateNoise() of every generator, each with a cheap and an
+ * expensive setting, at three resolutions. Layers are given as "layer"
+ * lines of a stack description. Vegetation grows over a Perlin fertility
+ * map; the others ignore their input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class GeneratorBenchmark {
+	private static final long SEED = 1234;
+
+	@Param({ "256", "1024", "4096" })
+	public int res;
+
+	@Param({
+		"perlin Frequency=4 Iterations=4",
+		"perlin Frequency=16 Iterations=8",
+		"simplex Scale=200",
+		"simplex Scale=20",
+		"voronoi Points=20",
+		"voronoi Points=400",
+		"cellnoise Frequency=10 Guassian=40",
+		"cellnoise Frequency=20 Guassian=0",
+		"vegetation Seeds=100 Iterations=10",
+		"vegetation Seeds=1000 Iterations=50",
+	})
+	public String layer;
+
+	private RenderContext ctx;
+	private NoiseOperation op;
+	private Parameters par;
+	private ImagePair input;
+
+	@Setup
+	public void setup() throws IOException {
+		ctx = new BenchContext(res);
+		StackDescription.LayerSpec spec = parse(layer);
+		op = (NoiseOperation) spec.getOperation();
+		par = spec.getParam();
+		input = new ImagePair(res);
+		if (layer.startsWith("vegetation")) {
+			StackDescription.LayerSpec fertility = parse("perlin Frequency=4 Iterations=4");
+			input = fertility.getOperation().executeOperation(ctx, input, fertility.getParam());
+		}
+	}
+
+	@Benchmark
+	public BufferedImage generateNoise() {
+		return op.generateNoise(ctx, input, par, SEED);
+	}
+
+	static StackDescription.LayerSpec parse(String layer) throws IOException {
+		return StackDescription.parse(new StringReader("layer " + layer)).getLayers().get(0);
+	}
+}
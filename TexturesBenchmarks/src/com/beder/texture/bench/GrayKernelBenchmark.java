@@ -0,0 +1,71 @@
+package com.beder.texture.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.beder.texture.adjust.GrayKernels;
+
+/**
+ * Times one pass of each adjust kernel over a res x res channel, on the
+ * Vector API and on the scalar loops. The path is picked with the
+ * textures.vector property before GrayKernels is loaded, which works because
+ * every parameter combination runs in a JVM of its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class GrayKernelBenchmark {
+	@Param({ "1024", "4096" })
+	public int res;
+
+	@Param({ "true", "false" })
+	public boolean vector;
+
+	private float[] src, dst, gamma;
+
+	@Setup
+	public void setup() {
+		System.setProperty("textures.vector", Boolean.toString(vector));
+		Random random = new Random(1);
+		src = new float[res * res];
+		dst = new float[src.length];
+		// A little outside [0,1], as noise often is before it is clamped
+		for (int i = 0; i < src.length; i++) {
+			src[i] = random.nextFloat() * 1.2f - 0.1f;
+		}
+		gamma = GrayKernels.powerTable(1 / 2.2);
+	}
+
+	@Benchmark
+	public float[] remap() {
+		GrayKernels.affine(src, 0, dst, 0, src.length, 0.5f, 0.5f);
+		return dst;
+	}
+
+	@Benchmark
+	public float[] clamp() {
+		GrayKernels.clamp(src, 0, dst, 0, src.length, 0f, 1f);
+		return dst;
+	}
+
+	@Benchmark
+	public float[] gamma() {
+		GrayKernels.curve(src, 0, dst, 0, src.length, gamma);
+		return dst;
+	}
+}
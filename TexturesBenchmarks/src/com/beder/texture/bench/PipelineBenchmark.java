@@ -0,0 +1,112 @@
+package com.beder.texture.bench;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.beder.texture.ImagePair;
+import com.beder.texture.RenderContext;
+import com.beder.texture.batch.StackDescription;
+import com.beder.texture.export.PngWriter;
+import com.beder.texture.scatter.SpriteRepository;
+
+/**
+ * Times the stages around the generators: sharing and copying a pair, PNG
+ * export, and a whole Scatter layer. The pair is Perlin noise on the left
+ * and black on the right, as after a first layer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class PipelineBenchmark {
+	@Param({ "256", "1024", "4096" })
+	public int res;
+
+	private RenderContext ctx;
+	private ImagePair pair;
+	private StackDescription.LayerSpec scatter;
+	private File png;
+
+	@Setup
+	public void setup() throws IOException {
+		ctx = new BenchContext(res);
+		StackDescription.LayerSpec perlin = GeneratorBenchmark.parse("perlin Frequency=4 Iterations=4 Seed=1");
+		pair = perlin.getOperation().executeOperation(ctx, new ImagePair(res), perlin.getParam());
+		pair.getLeft();
+
+		SpriteRepository.getInstance().clear();
+		SpriteRepository.getInstance().addSprite(disc(128), 1);
+		scatter = GeneratorBenchmark.parse("scatter Quantity=200 Size=64 StdDev=10 Seed=1");
+		png = File.createTempFile("bench", ".png");
+	}
+
+	@TearDown
+	public void tearDown() {
+		SpriteRepository.getInstance().clear();
+		png.delete();
+	}
+
+	/**
+	 * copy() only shares the buffers.
+	 */
+	@Benchmark
+	public ImagePair copyShared() {
+		ImagePair copy = pair.copy();
+		copy.release();
+		return copy;
+	}
+
+	/**
+	 * Writing to a shared copy is where the pixels are duplicated.
+	 */
+	@Benchmark
+	public BufferedImage copyOnWrite() {
+		ImagePair copy = pair.copy();
+		BufferedImage img = copy.getWritableLeft();
+		copy.release();
+		return img;
+	}
+
+	@Benchmark
+	public long exportPng() throws IOException {
+		PngWriter.writeLeft(pair, png);
+		return png.length();
+	}
+
+	@Benchmark
+	public ImagePair scatter() {
+		return scatter.getOperation().executeOperation(ctx, pair, scatter.getParam());
+	}
+
+	/**
+	 * @return an opaque disc on a transparent square, so blits exercise both
+	 *         the copied and the skipped pixels
+	 */
+	static BufferedImage disc(int size) {
+		BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = img.createGraphics();
+		g.setColor(new Color(0x80C040));
+		g.fillOval(0, 0, size, size);
+		g.dispose();
+		return img;
+	}
+}